@@ -0,0 +1,203 @@
+package co.gongzh.snail;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the buffers of small views into shared pages from the buffer pool, so that
+ * they don't need a surface for each. Regions are allocated on shelves, and a page
+ * is compacted when most of its area is no longer used.
+ */
+final class BufferAtlas {
+
+	static final int MAXIMUM_REGION_SIZE = 64;
+	static final int PAGE_SIZE = 512;
+	private static final int SHELF_STEP = 8; // shelf heights are rounded to this
+	private static final AlphaComposite SRC_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC);
+
+	static final class Region {
+		Page page;
+		int x, y;
+		final int width, height;
+		boolean painted;
+		private Shelf shelf;
+		Region(int width, int height) {
+			this.width = width;
+			this.height = height;
+			painted = false;
+		}
+		VolatileImage getImage() {
+			return page.image;
+		}
+	}
+
+	private static final class Shelf {
+		final int y, height;
+		int x;
+		int regionCount;
+		Shelf(int y, int height) {
+			this.y = y;
+			this.height = height;
+			x = 0;
+			regionCount = 0;
+		}
+	}
+
+	static final class Page {
+		VolatileImage image;
+		final boolean opaque;
+		private final List<Shelf> shelves;
+		private final List<Region> regions;
+		private int usedArea; // area of live regions
+		private int allocatedArea; // area taken by shelves, including freed regions
+		Page(VolatileImage image, boolean opaque) {
+			this.image = image;
+			this.opaque = opaque;
+			shelves = new ArrayList<Shelf>();
+			regions = new ArrayList<Region>();
+			usedArea = allocatedArea = 0;
+		}
+		private int getShelvesHeight() {
+			if (shelves.isEmpty()) return 0;
+			final Shelf last = shelves.get(shelves.size() - 1);
+			return last.y + last.height;
+		}
+	}
+
+	private final ViewContext.BufferPool pool;
+	private final List<Page> pages;
+
+	BufferAtlas(ViewContext.BufferPool pool) {
+		this.pool = pool;
+		pages = new ArrayList<Page>();
+	}
+
+	static boolean isSmall(int width, int height) {
+		return width <= MAXIMUM_REGION_SIZE && height <= MAXIMUM_REGION_SIZE;
+	}
+
+	int getPageCount() {
+		return pages.size();
+	}
+
+	Region allocate(int width, int height, boolean opaque) {
+		final Region region = new Region(width, height);
+		for (Page page : pages) {
+			if (page.opaque == opaque && place(page, region)) return region;
+		}
+		final Page page = newPage(opaque);
+		place(page, region);
+		return region;
+	}
+
+	void free(Region region) {
+		final Page page = region.page;
+		if (page == null) return;
+		page.regions.remove(region);
+		page.usedArea -= region.width * region.height;
+		final Shelf shelf = region.shelf;
+		if (--shelf.regionCount == 0) {
+			// an empty shelf can be filled again
+			page.allocatedArea -= shelf.x * shelf.height;
+			shelf.x = 0;
+		}
+		region.page = null;
+		region.shelf = null;
+		if (page.regions.isEmpty()) {
+			pages.remove(page);
+			pool.turnBackBuffer(page.image);
+			page.image = null;
+		} else if (page.usedArea * 4 < page.allocatedArea && page.allocatedArea * 2 > PAGE_SIZE * PAGE_SIZE) {
+			// fragmented, move the live regions out
+			compact(page);
+		}
+	}
+
+	// validates pages, regions on a restored or recreated page need to be painted again
+	void validate(Region region, GraphicsConfiguration gc) {
+		final Page page = region.page;
+		final int returnCode = page.image.validate(gc);
+		if (returnCode == VolatileImage.IMAGE_INCOMPATIBLE) {
+			pool.turnBackBuffer(page.image);
+			page.image = pool.getBuffer(PAGE_SIZE, PAGE_SIZE, page.opaque);
+		}
+		if (returnCode != VolatileImage.IMAGE_OK) {
+			for (Region r : page.regions) {
+				r.painted = false;
+			}
+		}
+	}
+
+	private Page newPage(boolean opaque) {
+		final Page page = new Page(pool.getBuffer(PAGE_SIZE, PAGE_SIZE, opaque), opaque);
+		page.image.validate(null); // a new surface may report restored on first validation
+		pages.add(page);
+		return page;
+	}
+
+	private boolean place(Page page, Region region) {
+		final int shelfHeight = (region.height + SHELF_STEP - 1) / SHELF_STEP * SHELF_STEP;
+		Shelf target = null;
+		for (Shelf shelf : page.shelves) {
+			if (shelf.height == shelfHeight && shelf.x + region.width <= PAGE_SIZE) {
+				target = shelf;
+				break;
+			}
+		}
+		if (target == null) {
+			final int y = page.getShelvesHeight();
+			if (y + shelfHeight > PAGE_SIZE) return false;
+			target = new Shelf(y, shelfHeight);
+			page.shelves.add(target);
+		}
+		region.page = page;
+		region.shelf = target;
+		region.x = target.x;
+		region.y = target.y;
+		target.x += region.width;
+		target.regionCount++;
+		page.regions.add(region);
+		page.usedArea += region.width * region.height;
+		page.allocatedArea += region.width * target.height;
+		return true;
+	}
+
+	private void compact(Page page) {
+		pages.remove(page);
+		final List<Region> regions = new ArrayList<Region>(page.regions);
+		for (Region region : regions) {
+			final int oldX = region.x, oldY = region.y;
+			final boolean painted = region.painted && !page.image.contentsLost();
+			region.shelf = null;
+			Page target = null;
+			for (Page p : pages) {
+				if (p.opaque == page.opaque && place(p, region)) {
+					target = p;
+					break;
+				}
+			}
+			if (target == null) {
+				target = newPage(page.opaque);
+				place(target, region);
+			}
+			if (painted) {
+				// copy the pixels
+				final Graphics2D g = target.image.createGraphics();
+				g.setComposite(SRC_COMPOSITE);
+				g.drawImage(page.image, region.x, region.y, region.x + region.width, region.y + region.height,
+						oldX, oldY, oldX + region.width, oldY + region.height, null);
+				g.dispose();
+				region.painted = !target.image.contentsLost();
+			} else {
+				region.painted = false;
+			}
+		}
+		pool.turnBackBuffer(page.image);
+		page.image = null;
+	}
+
+}
@@ -0,0 +1,164 @@
+package co.gongzh.snail;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers returned to buffer pools and not used by any view, kept in free lists of size classes.
+ * A cache either belongs to a single view context, or is shared by all view contexts in the process,
+ * where buffers of the same graphics configuration are reused across contexts.
+ */
+final class BufferCache {
+
+	private static final class Entry {
+		final GraphicsConfiguration configuration;
+		final ViewContext.BufferPool owner; // the pool which returned the buffer
+		final long time;
+		Entry(GraphicsConfiguration configuration, ViewContext.BufferPool owner, long time) {
+			this.configuration = configuration;
+			this.owner = owner;
+			this.time = time;
+		}
+	}
+
+	// free lists, the most recently returned buffer is at last
+	private final Map<GraphicsConfiguration, Map<Long, ArrayDeque<VolatileImage>>> freeLists;
+	// all cached buffers in the order they are returned, for trimming the least recently used
+	private final LinkedHashMap<VolatileImage, Entry> entries;
+	private long activeBytes; // buffers in use by all pools of this cache
+	private long cachedBytes;
+	private long limitation; // of active and cached buffers of all pools
+	private long lastTrimTime;
+
+	BufferCache(long limitation) {
+		freeLists = new HashMap<GraphicsConfiguration, Map<Long, ArrayDeque<VolatileImage>>>();
+		entries = new LinkedHashMap<VolatileImage, Entry>();
+		activeBytes = cachedBytes = 0;
+		this.limitation = limitation;
+		lastTrimTime = 0;
+	}
+
+	private static long getKey(int width, int height, boolean opaque) {
+		return ((long) width << 32) | ((long) height << 1) | (opaque ? 1 : 0);
+	}
+
+	private static int getBytes(VolatileImage buf) {
+		return buf.getWidth() * buf.getHeight() * 4;
+	}
+
+	private ArrayDeque<VolatileImage> getFreeList(GraphicsConfiguration configuration, long key, boolean create) {
+		Map<Long, ArrayDeque<VolatileImage>> lists = freeLists.get(configuration);
+		if (lists == null) {
+			if (!create) return null;
+			lists = new HashMap<Long, ArrayDeque<VolatileImage>>();
+			freeLists.put(configuration, lists);
+		}
+		ArrayDeque<VolatileImage> list = lists.get(key);
+		if (list == null && create) {
+			list = new ArrayDeque<VolatileImage>();
+			lists.put(key, list);
+		}
+		return list;
+	}
+
+	synchronized long getLimitation() {
+		return limitation;
+	}
+
+	synchronized void setLimitation(long limitation) {
+		this.limitation = limitation;
+		trim(null);
+	}
+
+	synchronized void allocated(long bytes) {
+		activeBytes += bytes;
+	}
+
+	// takes a cached buffer of exactly the size, or returns null
+	synchronized VolatileImage poll(GraphicsConfiguration configuration, int width, int height, boolean opaque) {
+		final ArrayDeque<VolatileImage> list = getFreeList(configuration, getKey(width, height, opaque), false);
+		final VolatileImage buf = list == null ? null : list.pollLast();
+		if (buf != null) {
+			final Entry entry = entries.remove(buf);
+			final int bytes = getBytes(buf);
+			entry.owner.buffer_cached -= bytes;
+			cachedBytes -= bytes;
+			activeBytes += bytes;
+		}
+		return buf;
+	}
+
+	synchronized void offer(GraphicsConfiguration configuration, VolatileImage buf, ViewContext.BufferPool owner) {
+		getFreeList(configuration, getKey(buf.getWidth(), buf.getHeight(), buf.getTransparency() == Transparency.OPAQUE), true).addLast(buf);
+		entries.put(buf, new Entry(configuration, owner, System.currentTimeMillis()));
+		final int bytes = getBytes(buf);
+		owner.buffer_cached += bytes;
+		cachedBytes += bytes;
+		activeBytes -= bytes;
+		trim(owner);
+	}
+
+	// flushes the least recently used buffers while the owner exceeds its own limitation,
+	// or all pools exceed the limitation of the cache
+	synchronized void trim(ViewContext.BufferPool owner) {
+		if (owner != null) {
+			final Iterator<Map.Entry<VolatileImage, Entry>> it = entries.entrySet().iterator();
+			while (owner.buffer_cached > 0 && owner.buffer_active + owner.buffer_cached > owner.buffer_limitation && it.hasNext()) {
+				final Map.Entry<VolatileImage, Entry> e = it.next();
+				if (e.getValue().owner == owner) {
+					it.remove();
+					flush(e.getKey(), e.getValue());
+				}
+			}
+		}
+		while (cachedBytes > 0 && activeBytes + cachedBytes > limitation) {
+			flushLeastRecentlyUsedBuffer();
+		}
+	}
+
+	// flushes buffers unused for the timeout (in milliseconds), checked about once a second
+	synchronized void trimIdleBuffers(long now, long timeout) {
+		if (timeout <= 0 || now - lastTrimTime < 1000) return;
+		lastTrimTime = now;
+		while (!entries.isEmpty() && now - entries.values().iterator().next().time >= timeout) {
+			flushLeastRecentlyUsedBuffer();
+		}
+	}
+
+	// flushes all buffers returned by the owner
+	synchronized void clear(ViewContext.BufferPool owner) {
+		final Iterator<Map.Entry<VolatileImage, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<VolatileImage, Entry> e = it.next();
+			if (e.getValue().owner == owner) {
+				it.remove();
+				flush(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private void flushLeastRecentlyUsedBuffer() {
+		final Iterator<Map.Entry<VolatileImage, Entry>> it = entries.entrySet().iterator();
+		final Map.Entry<VolatileImage, Entry> e = it.next();
+		it.remove();
+		flush(e.getKey(), e.getValue());
+	}
+
+	private void flush(VolatileImage buf, Entry entry) {
+		final ArrayDeque<VolatileImage> list = getFreeList(entry.configuration, getKey(buf.getWidth(), buf.getHeight(), buf.getTransparency() == Transparency.OPAQUE), false);
+		// the least recently returned buffer is usually the first one of its free list
+		if (list.peekFirst() == buf) list.pollFirst();
+		else list.removeFirstOccurrence(buf);
+		final int bytes = getBytes(buf);
+		entry.owner.buffer_cached -= bytes;
+		cachedBytes -= bytes;
+		buf.flush();
+	}
+
+}
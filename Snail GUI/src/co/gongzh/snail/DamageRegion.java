@@ -0,0 +1,69 @@
+package co.gongzh.snail;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small set of rectangles that need to be repainted. Overlapping rectangles are merged,
+ * and the region collapses into its bounding rectangle when it becomes too fragmented.
+ */
+final class DamageRegion {
+
+	private static final int MAX_RECTANGLES = 8;
+	private final List<Rectangle> rectangles;
+
+	DamageRegion() {
+		rectangles = new ArrayList<Rectangle>(MAX_RECTANGLES);
+	}
+
+	void add(Rectangle rect) {
+		if (rect.isEmpty()) return;
+		rect = new Rectangle(rect);
+
+		// merge with overlapping rectangles
+		int i = 0;
+		while (i < rectangles.size()) {
+			Rectangle r = rectangles.get(i);
+			if (r.contains(rect)) {
+				return;
+			} else if (r.intersects(rect)) {
+				rect.add(r);
+				rectangles.remove(i);
+				i = 0;
+			} else {
+				i++;
+			}
+		}
+		rectangles.add(rect);
+
+		// too fragmented, collapse into bounding rectangle
+		if (rectangles.size() > MAX_RECTANGLES) {
+			Rectangle bounds = rectangles.get(0);
+			for (Rectangle r : rectangles) {
+				bounds.add(r);
+			}
+			rectangles.clear();
+			rectangles.add(bounds);
+		}
+	}
+
+	void translate(int dx, int dy) {
+		for (Rectangle r : rectangles) {
+			r.translate(dx, dy);
+		}
+	}
+
+	boolean isEmpty() {
+		return rectangles.isEmpty();
+	}
+
+	void clear() {
+		rectangles.clear();
+	}
+
+	List<Rectangle> getRectangles() {
+		return rectangles;
+	}
+
+}
@@ -0,0 +1,831 @@
+package co.gongzh.snail;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.RenderingHints.Key;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.RectangularShape;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A list of drawing commands recorded from a {@link Graphics2D} and replayed later.
+ * Used by views in {@link PaintMode#RECORDED} mode.
+ * <p>
+ * Commands are recorded in the coordinates of the view, and replayed relative to
+ * the transform and clip of the target graphics context.
+ */
+final class DisplayList {
+
+	// state of a replay
+	private static final class Playback {
+		final Graphics2D[] slots;
+		final AffineTransform baseTransform;
+		final Shape baseClip;
+		Playback(Graphics2D g, int slotCount) {
+			slots = new Graphics2D[slotCount];
+			slots[0] = (Graphics2D) g.create();
+			baseTransform = g.getTransform();
+			baseClip = g.getClip();
+		}
+	}
+
+	// every command is played on the graphics context (slot) it was recorded from
+	private static abstract class Command {
+		final int slot;
+		Command(int slot) {
+			this.slot = slot;
+		}
+		abstract void play(Playback p, Graphics2D g);
+	}
+
+	//// Commands ////
+	// commands are static and only hold their operands, so that a list keeps nothing else alive
+
+	private static final class SlotCommand extends Command {
+		static final int CREATE = 0, DISPOSE = 1;
+		final int kind, child;
+		SlotCommand(int slot, int kind, int child) {
+			super(slot);
+			this.kind = kind;
+			this.child = child;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			if (kind == CREATE) {
+				p.slots[child] = (Graphics2D) g.create();
+			} else {
+				g.dispose();
+				p.slots[slot] = null;
+			}
+		}
+	}
+
+	private static final class StateCommand extends Command {
+		static final int COLOR = 0, PAINT = 1, PAINT_MODE = 2, XOR_MODE = 3, FONT = 4, COMPOSITE = 5, STROKE = 6, BACKGROUND = 7, SET_HINTS = 8, ADD_HINTS = 9;
+		final int kind;
+		final Object value;
+		StateCommand(int slot, int kind, Object value) {
+			super(slot);
+			this.kind = kind;
+			this.value = value;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case COLOR: g.setColor((Color) value); break;
+			case PAINT: g.setPaint((Paint) value); break;
+			case PAINT_MODE: g.setPaintMode(); break;
+			case XOR_MODE: g.setXORMode((Color) value); break;
+			case FONT: g.setFont((Font) value); break;
+			case COMPOSITE: g.setComposite((Composite) value); break;
+			case STROKE: g.setStroke((Stroke) value); break;
+			case BACKGROUND: g.setBackground((Color) value); break;
+			case SET_HINTS: g.setRenderingHints((Map<?, ?>) value); break;
+			case ADD_HINTS: g.addRenderingHints((Map<?, ?>) value); break;
+			}
+		}
+	}
+
+	private static final class HintCommand extends Command {
+		final Key key;
+		final Object value;
+		HintCommand(int slot, Key key, Object value) {
+			super(slot);
+			this.key = key;
+			this.value = value;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			g.setRenderingHint(key, value);
+		}
+	}
+
+	private static final class TransformCommand extends Command {
+		static final int TRANSLATE = 0, ROTATE = 1, ROTATE_AROUND = 2, SCALE = 3, SHEAR = 4, TRANSFORM = 5, SET_TRANSFORM = 6;
+		final int kind;
+		final double a, b, c;
+		final AffineTransform tx;
+		TransformCommand(int slot, int kind, double a, double b, double c, AffineTransform tx) {
+			super(slot);
+			this.kind = kind;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.tx = tx;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case TRANSLATE: g.translate(a, b); break;
+			case ROTATE: g.rotate(a); break;
+			case ROTATE_AROUND: g.rotate(a, b, c); break;
+			case SCALE: g.scale(a, b); break;
+			case SHEAR: g.shear(a, b); break;
+			case TRANSFORM: g.transform(tx); break;
+			case SET_TRANSFORM: g.setTransform(p.baseTransform); g.transform(tx); break;
+			}
+		}
+	}
+
+	private static final class ShapeCommand extends Command {
+		static final int DRAW = 0, FILL = 1, CLIP = 2, SET_CLIP = 3;
+		final int kind;
+		final Shape shape;
+		ShapeCommand(int slot, int kind, Shape shape) {
+			super(slot);
+			this.kind = kind;
+			this.shape = shape;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case DRAW: g.draw(shape); break;
+			case FILL: g.fill(shape); break;
+			case CLIP: g.clip(shape); break;
+			case SET_CLIP: resetClip(p, g); if (shape != null) g.clip(shape); break;
+			}
+		}
+	}
+
+	// commands with integer operands
+	private static final class RectCommand extends Command {
+		static final int TRANSLATE = 0, CLIP_RECT = 1, SET_CLIP = 2, LINE = 3, RECT = 4, FILL_RECT = 5, CLEAR_RECT = 6,
+				ROUND_RECT = 7, FILL_ROUND_RECT = 8, OVAL = 9, FILL_OVAL = 10, ARC = 11, FILL_ARC = 12, COPY_AREA = 13;
+		final int kind;
+		final int x, y, width, height, arg1, arg2;
+		RectCommand(int slot, int kind, int x, int y, int width, int height, int arg1, int arg2) {
+			super(slot);
+			this.kind = kind;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case TRANSLATE: g.translate(x, y); break;
+			case CLIP_RECT: g.clipRect(x, y, width, height); break;
+			case SET_CLIP: resetClip(p, g); g.clipRect(x, y, width, height); break;
+			case LINE: g.drawLine(x, y, width, height); break;
+			case RECT: g.drawRect(x, y, width, height); break;
+			case FILL_RECT: g.fillRect(x, y, width, height); break;
+			case CLEAR_RECT: g.clearRect(x, y, width, height); break;
+			case ROUND_RECT: g.drawRoundRect(x, y, width, height, arg1, arg2); break;
+			case FILL_ROUND_RECT: g.fillRoundRect(x, y, width, height, arg1, arg2); break;
+			case OVAL: g.drawOval(x, y, width, height); break;
+			case FILL_OVAL: g.fillOval(x, y, width, height); break;
+			case ARC: g.drawArc(x, y, width, height, arg1, arg2); break;
+			case FILL_ARC: g.fillArc(x, y, width, height, arg1, arg2); break;
+			case COPY_AREA: g.copyArea(x, y, width, height, arg1, arg2); break;
+			}
+		}
+	}
+
+	private static final class PolyCommand extends Command {
+		static final int POLYLINE = 0, POLYGON = 1, FILL_POLYGON = 2;
+		final int kind;
+		final int[] xs, ys;
+		final int count;
+		PolyCommand(int slot, int kind, int[] xs, int[] ys, int count) {
+			super(slot);
+			this.kind = kind;
+			this.xs = xs;
+			this.ys = ys;
+			this.count = count;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case POLYLINE: g.drawPolyline(xs, ys, count); break;
+			case POLYGON: g.drawPolygon(xs, ys, count); break;
+			case FILL_POLYGON: g.fillPolygon(xs, ys, count); break;
+			}
+		}
+	}
+
+	// a string, an attributed string or a glyph vector
+	private static final class TextCommand extends Command {
+		final Object text;
+		final float x, y;
+		final boolean integral; // drawn at integer coordinates
+		TextCommand(int slot, Object text, float x, float y, boolean integral) {
+			super(slot);
+			this.text = text;
+			this.x = x;
+			this.y = y;
+			this.integral = integral;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			if (text instanceof GlyphVector) {
+				g.drawGlyphVector((GlyphVector) text, x, y);
+			} else if (text instanceof String) {
+				if (integral) g.drawString((String) text, (int) x, (int) y);
+				else g.drawString((String) text, x, y);
+			} else {
+				final AttributedCharacterIterator it = (AttributedCharacterIterator) text;
+				it.first();
+				if (integral) g.drawString(it, (int) x, (int) y);
+				else g.drawString(it, x, y);
+			}
+		}
+	}
+
+	private static final class SnailImageCommand extends Command {
+		final co.gongzh.snail.Image image;
+		final int left, top, width, height;
+		SnailImageCommand(int slot, co.gongzh.snail.Image image, int left, int top, int width, int height) {
+			super(slot);
+			this.image = image;
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			image.paintOnScreen(g, left, top, width, height);
+		}
+	}
+
+	private static final class ImageCommand extends Command {
+		static final int AT = 0, SCALED = 1, REGION = 2;
+		final int kind;
+		final Image image;
+		final int dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2;
+		final Color bgcolor;
+		final ImageObserver observer;
+		ImageCommand(int slot, int kind, Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+			super(slot);
+			this.kind = kind;
+			this.image = image;
+			this.dx1 = dx1;
+			this.dy1 = dy1;
+			this.dx2 = dx2;
+			this.dy2 = dy2;
+			this.sx1 = sx1;
+			this.sy1 = sy1;
+			this.sx2 = sx2;
+			this.sy2 = sy2;
+			this.bgcolor = bgcolor;
+			this.observer = observer;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case AT: g.drawImage(image, dx1, dy1, bgcolor, observer); break;
+			case SCALED: g.drawImage(image, dx1, dy1, dx2, dy2, bgcolor, observer); break;
+			case REGION: g.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, observer); break;
+			}
+		}
+	}
+
+	// images drawn with a transform or a filter
+	private static final class TransformedImageCommand extends Command {
+		static final int IMAGE = 0, FILTERED = 1, RENDERED = 2, RENDERABLE = 3;
+		final int kind;
+		final Object image;
+		final AffineTransform tx;
+		final Object extra; // observer or filter
+		final int x, y;
+		TransformedImageCommand(int slot, int kind, Object image, AffineTransform tx, Object extra, int x, int y) {
+			super(slot);
+			this.kind = kind;
+			this.image = image;
+			this.tx = tx;
+			this.extra = extra;
+			this.x = x;
+			this.y = y;
+		}
+		@Override
+		void play(Playback p, Graphics2D g) {
+			switch (kind) {
+			case IMAGE: g.drawImage((Image) image, tx, (ImageObserver) extra); break;
+			case FILTERED: g.drawImage((BufferedImage) image, (BufferedImageOp) extra, x, y); break;
+			case RENDERED: g.drawRenderedImage((RenderedImage) image, tx); break;
+			case RENDERABLE: g.drawRenderableImage((RenderableImage) image, tx); break;
+			}
+		}
+	}
+
+	private final ArrayList<Command> commands;
+	private int slotCount;
+
+	DisplayList() {
+		commands = new ArrayList<Command>();
+		slotCount = 0;
+	}
+
+	/**
+	 * Clears the list and returns a graphics context that records into it.
+	 * State queries (such as font metrics) are answered by <code>scratch</code>,
+	 * which is owned and disposed by the recorder.
+	 */
+	Recorder record(Graphics2D scratch) {
+		commands.clear();
+		slotCount = 1;
+		return new Recorder(this, scratch, 0);
+	}
+
+	void clear() {
+		commands.clear();
+		commands.trimToSize();
+		slotCount = 0;
+	}
+
+	int size() {
+		return commands.size();
+	}
+
+	void play(Graphics2D g) {
+		if (slotCount == 0) return;
+		final Playback p = new Playback(g, slotCount);
+		for (int i = 0; i < commands.size(); i++) {
+			final Command cmd = commands.get(i);
+			final Graphics2D target = p.slots[cmd.slot];
+			if (target != null) cmd.play(p, target);
+		}
+		for (Graphics2D target : p.slots) {
+			if (target != null) target.dispose();
+		}
+	}
+
+	private static Shape copyShape(Shape s) {
+		if (s instanceof RectangularShape) return (Shape) ((RectangularShape) s).clone();
+		else if (s instanceof Line2D) return (Shape) ((Line2D) s).clone();
+		else if (s instanceof Path2D) return (Shape) ((Path2D) s).clone();
+		else if (s instanceof Area) return (Shape) ((Area) s).clone();
+		else if (s == null) return null;
+		else return new Path2D.Float(s);
+	}
+
+	private static void resetClip(Playback p, Graphics2D g) {
+		final AffineTransform tx = g.getTransform();
+		g.setTransform(p.baseTransform);
+		g.setClip(p.baseClip);
+		g.setTransform(tx);
+	}
+
+	static final class Recorder extends Graphics2D {
+
+		private final DisplayList list;
+		private final Graphics2D scratch;
+		private final int slot;
+
+		private Recorder(DisplayList list, Graphics2D scratch, int slot) {
+			this.list = list;
+			this.scratch = scratch;
+			this.slot = slot;
+		}
+
+		private void add(Command cmd) {
+			list.commands.add(cmd);
+		}
+
+		private void addState(int kind, Object value) {
+			add(new StateCommand(slot, kind, value));
+		}
+
+		private void addTransform(int kind, double a, double b, double c, AffineTransform tx) {
+			add(new TransformCommand(slot, kind, a, b, c, tx));
+		}
+
+		private void addRect(int kind, int x, int y, int width, int height, int arg1, int arg2) {
+			add(new RectCommand(slot, kind, x, y, width, height, arg1, arg2));
+		}
+
+		//// Snail Images ////
+
+		void drawImage(co.gongzh.snail.Image img, int left, int top, int width, int height) {
+			add(new SnailImageCommand(slot, img, left, top, width, height));
+		}
+
+		//// State ////
+
+		@Override
+		public Graphics create() {
+			final int child = list.slotCount++;
+			add(new SlotCommand(slot, SlotCommand.CREATE, child));
+			return new Recorder(list, (Graphics2D) scratch.create(), child);
+		}
+
+		@Override
+		public void dispose() {
+			if (slot != 0) add(new SlotCommand(slot, SlotCommand.DISPOSE, 0));
+			scratch.dispose();
+		}
+
+		@Override
+		public void setColor(Color c) {
+			scratch.setColor(c);
+			addState(StateCommand.COLOR, c);
+		}
+
+		@Override
+		public void setPaint(Paint paint) {
+			scratch.setPaint(paint);
+			addState(StateCommand.PAINT, paint);
+		}
+
+		@Override
+		public void setPaintMode() {
+			scratch.setPaintMode();
+			addState(StateCommand.PAINT_MODE, null);
+		}
+
+		@Override
+		public void setXORMode(Color c1) {
+			scratch.setXORMode(c1);
+			addState(StateCommand.XOR_MODE, c1);
+		}
+
+		@Override
+		public void setFont(Font font) {
+			scratch.setFont(font);
+			addState(StateCommand.FONT, font);
+		}
+
+		@Override
+		public void setComposite(Composite comp) {
+			scratch.setComposite(comp);
+			addState(StateCommand.COMPOSITE, comp);
+		}
+
+		@Override
+		public void setStroke(Stroke s) {
+			scratch.setStroke(s);
+			addState(StateCommand.STROKE, s);
+		}
+
+		@Override
+		public void setBackground(Color color) {
+			scratch.setBackground(color);
+			addState(StateCommand.BACKGROUND, color);
+		}
+
+		@Override
+		public void setRenderingHint(Key hintKey, Object hintValue) {
+			scratch.setRenderingHint(hintKey, hintValue);
+			add(new HintCommand(slot, hintKey, hintValue));
+		}
+
+		@Override
+		public void setRenderingHints(Map<?, ?> hints) {
+			final Map<?, ?> copy = new HashMap<Object, Object>(hints);
+			scratch.setRenderingHints(copy);
+			addState(StateCommand.SET_HINTS, copy);
+		}
+
+		@Override
+		public void addRenderingHints(Map<?, ?> hints) {
+			final Map<?, ?> copy = new HashMap<Object, Object>(hints);
+			scratch.addRenderingHints(copy);
+			addState(StateCommand.ADD_HINTS, copy);
+		}
+
+		@Override
+		public Color getColor() {
+			return scratch.getColor();
+		}
+
+		@Override
+		public Paint getPaint() {
+			return scratch.getPaint();
+		}
+
+		@Override
+		public Font getFont() {
+			return scratch.getFont();
+		}
+
+		@Override
+		public FontMetrics getFontMetrics(Font f) {
+			return scratch.getFontMetrics(f);
+		}
+
+		@Override
+		public Composite getComposite() {
+			return scratch.getComposite();
+		}
+
+		@Override
+		public Stroke getStroke() {
+			return scratch.getStroke();
+		}
+
+		@Override
+		public Color getBackground() {
+			return scratch.getBackground();
+		}
+
+		@Override
+		public Object getRenderingHint(Key hintKey) {
+			return scratch.getRenderingHint(hintKey);
+		}
+
+		@Override
+		public RenderingHints getRenderingHints() {
+			return scratch.getRenderingHints();
+		}
+
+		@Override
+		public GraphicsConfiguration getDeviceConfiguration() {
+			return scratch.getDeviceConfiguration();
+		}
+
+		@Override
+		public FontRenderContext getFontRenderContext() {
+			return scratch.getFontRenderContext();
+		}
+
+		@Override
+		public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+			return scratch.hit(rect, s, onStroke);
+		}
+
+		//// Transform ////
+
+		@Override
+		public void translate(int x, int y) {
+			scratch.translate(x, y);
+			addRect(RectCommand.TRANSLATE, x, y, 0, 0, 0, 0);
+		}
+
+		@Override
+		public void translate(double tx, double ty) {
+			scratch.translate(tx, ty);
+			addTransform(TransformCommand.TRANSLATE, tx, ty, 0, null);
+		}
+
+		@Override
+		public void rotate(double theta) {
+			scratch.rotate(theta);
+			addTransform(TransformCommand.ROTATE, theta, 0, 0, null);
+		}
+
+		@Override
+		public void rotate(double theta, double x, double y) {
+			scratch.rotate(theta, x, y);
+			addTransform(TransformCommand.ROTATE_AROUND, theta, x, y, null);
+		}
+
+		@Override
+		public void scale(double sx, double sy) {
+			scratch.scale(sx, sy);
+			addTransform(TransformCommand.SCALE, sx, sy, 0, null);
+		}
+
+		@Override
+		public void shear(double shx, double shy) {
+			scratch.shear(shx, shy);
+			addTransform(TransformCommand.SHEAR, shx, shy, 0, null);
+		}
+
+		@Override
+		public void transform(AffineTransform Tx) {
+			final AffineTransform tx = (AffineTransform) Tx.clone();
+			scratch.transform(tx);
+			addTransform(TransformCommand.TRANSFORM, 0, 0, 0, tx);
+		}
+
+		@Override
+		public void setTransform(AffineTransform Tx) {
+			final AffineTransform tx = (AffineTransform) Tx.clone();
+			scratch.setTransform(tx);
+			addTransform(TransformCommand.SET_TRANSFORM, 0, 0, 0, tx);
+		}
+
+		@Override
+		public AffineTransform getTransform() {
+			return scratch.getTransform();
+		}
+
+		//// Clip ////
+
+		@Override
+		public void clip(Shape s) {
+			final Shape shape = copyShape(s);
+			scratch.clip(shape);
+			add(new ShapeCommand(slot, ShapeCommand.CLIP, shape));
+		}
+
+		@Override
+		public void clipRect(int x, int y, int width, int height) {
+			scratch.clipRect(x, y, width, height);
+			addRect(RectCommand.CLIP_RECT, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void setClip(int x, int y, int width, int height) {
+			scratch.setClip(x, y, width, height);
+			addRect(RectCommand.SET_CLIP, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void setClip(Shape clip) {
+			final Shape shape = copyShape(clip);
+			scratch.setClip(shape);
+			add(new ShapeCommand(slot, ShapeCommand.SET_CLIP, shape));
+		}
+
+		@Override
+		public Shape getClip() {
+			return scratch.getClip();
+		}
+
+		@Override
+		public Rectangle getClipBounds() {
+			return scratch.getClipBounds();
+		}
+
+		//// Drawing ////
+
+		@Override
+		public void draw(Shape s) {
+			add(new ShapeCommand(slot, ShapeCommand.DRAW, copyShape(s)));
+		}
+
+		@Override
+		public void fill(Shape s) {
+			add(new ShapeCommand(slot, ShapeCommand.FILL, copyShape(s)));
+		}
+
+		@Override
+		public void drawGlyphVector(GlyphVector gv, float x, float y) {
+			add(new TextCommand(slot, gv, x, y, false));
+		}
+
+		@Override
+		public void drawString(String str, int x, int y) {
+			add(new TextCommand(slot, str, x, y, true));
+		}
+
+		@Override
+		public void drawString(String str, float x, float y) {
+			add(new TextCommand(slot, str, x, y, false));
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+			add(new TextCommand(slot, iterator.clone(), x, y, true));
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+			add(new TextCommand(slot, iterator.clone(), x, y, false));
+		}
+
+		@Override
+		public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+			add(new TransformedImageCommand(slot, TransformedImageCommand.IMAGE, img, (AffineTransform) xform.clone(), obs, 0, 0));
+			return true;
+		}
+
+		@Override
+		public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+			add(new TransformedImageCommand(slot, TransformedImageCommand.FILTERED, img, null, op, x, y));
+		}
+
+		@Override
+		public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+			add(new TransformedImageCommand(slot, TransformedImageCommand.RENDERED, img, (AffineTransform) xform.clone(), null, 0, 0));
+		}
+
+		@Override
+		public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+			add(new TransformedImageCommand(slot, TransformedImageCommand.RENDERABLE, img, (AffineTransform) xform.clone(), null, 0, 0));
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+			return drawImage(img, x, y, null, observer);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+			add(new ImageCommand(slot, ImageCommand.AT, img, x, y, 0, 0, 0, 0, 0, 0, bgcolor, observer));
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+			return drawImage(img, x, y, width, height, null, observer);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+			add(new ImageCommand(slot, ImageCommand.SCALED, img, x, y, width, height, 0, 0, 0, 0, bgcolor, observer));
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+			return drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+			add(new ImageCommand(slot, ImageCommand.REGION, img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, observer));
+			return true;
+		}
+
+		@Override
+		public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+			addRect(RectCommand.COPY_AREA, x, y, width, height, dx, dy);
+		}
+
+		@Override
+		public void clearRect(int x, int y, int width, int height) {
+			addRect(RectCommand.CLEAR_RECT, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			addRect(RectCommand.LINE, x1, y1, x2, y2, 0, 0);
+		}
+
+		@Override
+		public void drawRect(int x, int y, int width, int height) {
+			addRect(RectCommand.RECT, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void fillRect(int x, int y, int width, int height) {
+			addRect(RectCommand.FILL_RECT, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			addRect(RectCommand.ROUND_RECT, x, y, width, height, arcWidth, arcHeight);
+		}
+
+		@Override
+		public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			addRect(RectCommand.FILL_ROUND_RECT, x, y, width, height, arcWidth, arcHeight);
+		}
+
+		@Override
+		public void drawOval(int x, int y, int width, int height) {
+			addRect(RectCommand.OVAL, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void fillOval(int x, int y, int width, int height) {
+			addRect(RectCommand.FILL_OVAL, x, y, width, height, 0, 0);
+		}
+
+		@Override
+		public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			addRect(RectCommand.ARC, x, y, width, height, startAngle, arcAngle);
+		}
+
+		@Override
+		public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			addRect(RectCommand.FILL_ARC, x, y, width, height, startAngle, arcAngle);
+		}
+
+		@Override
+		public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+			add(new PolyCommand(slot, PolyCommand.POLYLINE, xPoints.clone(), yPoints.clone(), nPoints));
+		}
+
+		@Override
+		public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			add(new PolyCommand(slot, PolyCommand.POLYGON, xPoints.clone(), yPoints.clone(), nPoints));
+		}
+
+		@Override
+		public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			add(new PolyCommand(slot, PolyCommand.FILL_POLYGON, xPoints.clone(), yPoints.clone(), nPoints));
+		}
+
+	}
+
+}
@@ -0,0 +1,107 @@
+package co.gongzh.snail;
+
+import java.util.Arrays;
+
+/**
+ * Timings of the phases of recent frames, kept in a ring buffer of {@value #CAPACITY} frames.
+ * Statistics of the driver cover all view contexts, and each view context has its own
+ * (see {@link ViewContext#getDriverFrameStatistics()} and {@link ViewContext#getFrameStatistics()}).
+ * <p>
+ * Layout counts the views laid out during the frame (including those laid out by animations),
+ * paint counts painting views since the last frame, and present counts the rest of pushing
+ * the damaged region to screen.
+ * <p>
+ * A context hosted in a Swing panel without {@link ViewContext#setImmediatePaintEnable(boolean) immediate paint}
+ * only posts its damaged region to Swing's repaint manager, which paints it in a later event.
+ * Its paint time then lags one frame behind (it belongs to the paint of the previous frame),
+ * and present is not recorded.
+ */
+public final class FrameStatistics {
+
+	public static enum Phase {
+		ANIMATION, LAYOUT, PAINT, PRESENT,
+		// sum of all phases
+		FRAME
+	}
+
+	public static final int CAPACITY = 240;
+
+	private final long[][] samples; // in nanoseconds, by phase
+	private int index;
+	private int count;
+	private long jankThreshold; // in nanoseconds
+
+	FrameStatistics() {
+		samples = new long[Phase.values().length][CAPACITY];
+		index = count = 0;
+		jankThreshold = 1000000000L / 60;
+	}
+
+	synchronized void record(long animation, long layout, long paint, long present) {
+		samples[Phase.ANIMATION.ordinal()][index] = animation;
+		samples[Phase.LAYOUT.ordinal()][index] = layout;
+		samples[Phase.PAINT.ordinal()][index] = paint;
+		samples[Phase.PRESENT.ordinal()][index] = present;
+		samples[Phase.FRAME.ordinal()][index] = animation + layout + paint + present;
+		index = (index + 1) % CAPACITY;
+		if (count < CAPACITY) count++;
+	}
+
+	/**
+	 * Returns the number of frames recorded, up to {@value #CAPACITY}.
+	 */
+	public synchronized int getFrameCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) of a phase which the given percentage of recent frames
+	 * take at most, such as 50, 95 or 99. Returns 0 if no frame is recorded.
+	 */
+	public synchronized float getPercentile(Phase phase, int percent) {
+		if (count == 0) return 0.0f;
+		final long[] sorted = Arrays.copyOf(samples[phase.ordinal()], count);
+		Arrays.sort(sorted);
+		final int rank = (int) Math.ceil(percent / 100.0 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, rank))] / 1000000.0f;
+	}
+
+	/**
+	 * Returns the number of recent frames taking longer than the jank threshold.
+	 */
+	public synchronized int getJankCount() {
+		final long[] frames = samples[Phase.FRAME.ordinal()];
+		int jank = 0;
+		for (int i = 0; i < count; i++) {
+			if (frames[i] > jankThreshold) jank++;
+		}
+		return jank;
+	}
+
+	public synchronized float getJankThreshold() {
+		return jankThreshold / 1000000.0f;
+	}
+
+	/**
+	 * Sets the time (in milliseconds) above which a frame is counted as jank, a frame of 60 FPS by default.
+	 */
+	public synchronized void setJankThreshold(float milliseconds) {
+		this.jankThreshold = (long) (milliseconds * 1000000L);
+	}
+
+	public synchronized void reset() {
+		index = count = 0;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d frames, %d jank", getFrameCount(), getJankCount()));
+		for (Phase phase : Phase.values()) {
+			sb.append(String.format(", %s p50/p95/p99 %.2f/%.2f/%.2f ms", phase.name().toLowerCase(),
+					getPercentile(phase, 50), getPercentile(phase, 95), getPercentile(phase, 99)));
+		}
+		return sb.toString();
+	}
+
+}
@@ -2,6 +2,15 @@ package co.gongzh.snail;
 
 public enum PaintMode {
 	
-	DISABLED, BUFFERED, DIRECTLY;
+	DISABLED, BUFFERED, DIRECTLY,
+	
+	// paints the view together with all of its descendants into a single buffer
+	CACHED_SUBTREE,
+	
+	// records drawing commands into a display list, and replays it until the view needs repaint
+	RECORDED,
+	
+	// measures paint time and invalidation frequency, and switches between buffered and direct painting
+	ADAPTIVE;
 
 }
@@ -0,0 +1,118 @@
+package co.gongzh.snail;
+
+/**
+ * Measures the paint time, blit time and invalidation frequency of a view in {@link PaintMode#ADAPTIVE} mode,
+ * over a sliding window of the frames in which it is painted, and decides whether the view
+ * is worth buffering. A buffered view costs its paint time in the frames it is invalidated plus
+ * a blit in every frame, a direct view costs its paint time in every frame. A view is painted
+ * directly as soon as that is not more expensive, and buffered again only when that is clearly
+ * cheaper. A decision holds for at least a whole window.
+ */
+final class PaintStatistics {
+
+	static final int WINDOW = 32; // frames
+	private static final float BUFFERED_COST_RATIO = 0.75f; // buffering must save a quarter of the cost to pay for its memory
+	private static final long DEFAULT_BLIT_TIME = 50 * 1000; // nanoseconds, until a blit is measured
+
+	private final boolean[] repainted; // whether the view was invalidated
+	private final long[] paintTimes; // nanoseconds, -1 if content was not painted
+	private final long[] blitTimes; // nanoseconds, -1 if not buffered
+	private int index;
+	private int frames; // in window
+	private int repaintCount;
+	private int paintCount;
+	private long paintTimeSum;
+	private int blitCount;
+	private long blitTimeSum;
+	private long blitTime; // average of the last buffered window, kept while painted directly
+	private boolean buffered;
+
+	PaintStatistics() {
+		repainted = new boolean[WINDOW];
+		paintTimes = new long[WINDOW];
+		blitTimes = new long[WINDOW];
+		blitTime = DEFAULT_BLIT_TIME;
+		buffered = true;
+		reset();
+	}
+
+	private void reset() {
+		index = frames = 0;
+		repaintCount = paintCount = blitCount = 0;
+		paintTimeSum = blitTimeSum = 0;
+	}
+
+	boolean isBuffered() {
+		return buffered;
+	}
+
+	float getRepaintRate() {
+		return frames == 0 ? 0.0f : (float) repaintCount / frames;
+	}
+
+	// average time (in nanoseconds) of painting the content, -1 if unknown
+	long getAveragePaintTime() {
+		return paintCount == 0 ? -1 : paintTimeSum / paintCount;
+	}
+
+	// average time (in nanoseconds) of drawing the buffer on screen, measured while buffered
+	long getAverageBlitTime() {
+		return blitCount == 0 ? blitTime : blitTimeSum / blitCount;
+	}
+
+	void record(boolean invalidated, long paintTime, long blitTime) {
+		if (frames == WINDOW) {
+			// slide
+			if (repainted[index]) repaintCount--;
+			if (paintTimes[index] >= 0) {
+				paintCount--;
+				paintTimeSum -= paintTimes[index];
+			}
+			if (blitTimes[index] >= 0) {
+				blitCount--;
+				blitTimeSum -= blitTimes[index];
+			}
+		} else {
+			frames++;
+		}
+		repainted[index] = invalidated;
+		paintTimes[index] = paintTime;
+		blitTimes[index] = blitTime;
+		if (invalidated) repaintCount++;
+		if (paintTime >= 0) {
+			paintCount++;
+			paintTimeSum += paintTime;
+		}
+		if (blitTime >= 0) {
+			blitCount++;
+			blitTimeSum += blitTime;
+		}
+		index = (index + 1) % WINDOW;
+	}
+
+	// returns true if the decision is changed
+	boolean update(boolean bufferAvailable) {
+		if (buffered && !bufferAvailable) {
+			buffered = false;
+		} else if (frames < WINDOW) {
+			return false;
+		} else {
+			final long paintTime = getAveragePaintTime();
+			if (paintTime < 0) return false;
+			// per frame
+			final float directCost = paintTime;
+			final float bufferedCost = getRepaintRate() * paintTime + getAverageBlitTime();
+			if (buffered) {
+				if (directCost > bufferedCost) return false;
+				blitTime = getAverageBlitTime();
+				buffered = false;
+			} else {
+				if (!bufferAvailable || bufferedCost >= directCost * BUFFERED_COST_RATIO) return false;
+				buffered = true;
+			}
+		}
+		reset();
+		return true;
+	}
+
+}
@@ -0,0 +1,91 @@
+package co.gongzh.snail;
+
+import co.gongzh.snail.event.Key;
+import co.gongzh.snail.util.Vector2D;
+
+/**
+ * A clipped view that scrolls its content view. The visible area is cached as a
+ * subtree, so scrolling shifts the cached pixels and only repaints the exposed strip.
+ * The scroll view itself should only paint a solid background (or nothing).
+ */
+public class ScrollView extends View {
+	
+	public static final Key CONTENT_OFFSET_CHANGED = new Key("contentOffsetChanged", ScrollView.class, Vector2D.class);
+	
+	private final View contentView;
+	private int offsetX, offsetY;
+	private int scrollStep;
+	
+	public ScrollView() {
+		offsetX = offsetY = 0;
+		scrollStep = 10;
+		contentView = new View();
+		contentView.setBackgroundColor(null);
+		addSubview(contentView);
+		setClipped(true);
+		setPaintMode(PaintMode.CACHED_SUBTREE);
+	}
+	
+	public final View getContentView() {
+		return contentView;
+	}
+	
+	public final Vector2D getContentSize() {
+		return contentView.getSize();
+	}
+	
+	public final void setContentSize(int width, int height) {
+		contentView.setSize(width, height);
+		setContentOffset(offsetX, offsetY);
+	}
+	
+	public final Vector2D getContentOffset() {
+		return Vector2D.make(offsetX, offsetY);
+	}
+	
+	public final void setContentOffset(int x, int y) {
+		x = Math.max(0, Math.min(x, contentView.getWidth() - getWidth()));
+		y = Math.max(0, Math.min(y, contentView.getHeight() - getHeight()));
+		if (x == offsetX && y == offsetY) return;
+		final int dx = offsetX - x, dy = offsetY - y;
+		offsetX = x;
+		offsetY = y;
+		if (count() == 1 && scrollSubtreeCache(dx, dy)) {
+			// cached pixels are shifted, only the exposed area of the cache gets repainted
+			contentView.movePosition(-x, -y);
+			invalidRegion(0, 0, getWidth(), getHeight());
+		} else {
+			contentView.setPosition(-x, -y);
+		}
+		fireEvent(CONTENT_OFFSET_CHANGED, getContentOffset());
+	}
+	
+	public final void setContentOffset(Vector2D offset) {
+		setContentOffset(offset.x, offset.y);
+	}
+	
+	public final int getScrollStep() {
+		return scrollStep;
+	}
+	
+	public final void setScrollStep(int scrollStep) {
+		this.scrollStep = scrollStep;
+	}
+	
+	@Override
+	protected void layoutView() {
+		setContentOffset(offsetX, offsetY);
+	}
+	
+	@Override
+	protected void mouseWheelMoved(MouseWheelEvent e) {
+		final int delta = e.getRotation() * scrollStep;
+		if (e.getAWTEvent().isShiftDown()) {
+			setContentOffset(offsetX + delta, offsetY);
+		} else {
+			setContentOffset(offsetX, offsetY + delta);
+		}
+		e.handle();
+	}
+	
+}
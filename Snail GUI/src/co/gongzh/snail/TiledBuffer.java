@@ -0,0 +1,161 @@
+package co.gongzh.snail;
+
+import java.awt.AlphaComposite;
+import java.awt.Rectangle;
+import java.awt.image.VolatileImage;
+
+/**
+ * Backs the content of a big buffered view with fixed-size tiles from the buffer pool.
+ * Tiles are allocated and repainted only when they intersect the clip being painted,
+ * and the least recently painted tiles are returned to the pool when there are too many.
+ */
+final class TiledBuffer {
+
+	static final int TILE_SIZE = 256;
+	private static final AlphaComposite SRC_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC);
+
+	private final ViewContext.BufferPool pool;
+	private int width, height;
+	private int columns, rows;
+	private boolean opaque;
+	private VolatileImage[] tiles;
+	private boolean[] dirty;
+	private long[] lastUsed;
+	private int tileCount;
+	private long paintCounter;
+
+	TiledBuffer(ViewContext.BufferPool pool) {
+		this.pool = pool;
+		width = height = 0;
+		columns = rows = 0;
+		opaque = false;
+		tiles = new VolatileImage[0];
+		dirty = new boolean[0];
+		lastUsed = new long[0];
+		tileCount = 0;
+		paintCounter = 0;
+	}
+
+	void setSize(int width, int height, boolean opaque) {
+		if (this.opaque != opaque) {
+			release();
+			this.opaque = opaque;
+		}
+		if (this.width == width && this.height == height) return;
+		final int newColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+		final int newRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+		if (newColumns != columns || newRows != rows) {
+			release();
+			columns = newColumns;
+			rows = newRows;
+			tiles = new VolatileImage[columns * rows];
+			dirty = new boolean[columns * rows];
+			lastUsed = new long[columns * rows];
+		}
+		this.width = width;
+		this.height = height;
+		invalidate();
+	}
+
+	void invalidate() {
+		for (int i = 0; i < dirty.length; i++) {
+			dirty[i] = true;
+		}
+	}
+
+	// marks tiles intersecting a rectangle (in the coordinates of the view) as dirty
+	void invalidate(Rectangle rect) {
+		final int c0 = Math.max(0, rect.x / TILE_SIZE);
+		final int r0 = Math.max(0, rect.y / TILE_SIZE);
+		final int c1 = Math.min(columns - 1, (rect.x + rect.width - 1) / TILE_SIZE);
+		final int r1 = Math.min(rows - 1, (rect.y + rect.height - 1) / TILE_SIZE);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				dirty[r * columns + c] = true;
+			}
+		}
+	}
+
+	void release() {
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] != null) {
+				pool.turnBackBuffer(tiles[i]);
+				tiles[i] = null;
+			}
+		}
+		tileCount = 0;
+	}
+
+	int getTileCount() {
+		return tileCount;
+	}
+
+	// paints tiles intersecting the clip (in the coordinates of the view)
+	void paint(View view, ViewGraphics g, Rectangle clip, int maxTileCount) {
+		clip = clip.intersection(new Rectangle(0, 0, width, height));
+		if (clip.isEmpty()) return;
+		paintCounter++;
+		final int c0 = clip.x / TILE_SIZE;
+		final int r0 = clip.y / TILE_SIZE;
+		final int c1 = (clip.x + clip.width - 1) / TILE_SIZE;
+		final int r1 = (clip.y + clip.height - 1) / TILE_SIZE;
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				paintTile(view, g, r * columns + c, c * TILE_SIZE, r * TILE_SIZE);
+			}
+		}
+		while (tileCount > maxTileCount && releaseLeastRecentlyUsedTile());
+	}
+
+	private void paintTile(View view, ViewGraphics g, int index, int x, int y) {
+		final int w = Math.min(TILE_SIZE, width - x);
+		final int h = Math.min(TILE_SIZE, height - y);
+		lastUsed[index] = paintCounter;
+		if (tiles[index] == null) {
+			tiles[index] = pool.getBuffer(TILE_SIZE, TILE_SIZE, opaque);
+			tileCount++;
+			dirty[index] = true;
+		}
+		do {
+			int returnCode = tiles[index].validate(g.getDeviceConfiguration());
+			if (returnCode == VolatileImage.IMAGE_INCOMPATIBLE) {
+				pool.turnBackBuffer(tiles[index]);
+				tiles[index] = pool.getBuffer(TILE_SIZE, TILE_SIZE, opaque);
+				dirty[index] = true;
+			} else if (returnCode == VolatileImage.IMAGE_RESTORED) {
+				dirty[index] = true;
+			}
+			if (dirty[index]) {
+				ViewGraphics tg = new ViewGraphics(tiles[index].createGraphics());
+				tg.translate(-x, -y);
+				tg.clipRect(x, y, w, h);
+				view.repaintBufferContent(tg, x, y, w, h);
+				tg.dispose();
+				dirty[index] = false;
+			}
+
+			// on screen
+			if (opaque && g.getAlpha() >= 1.0f) {
+				g.setComposite(SRC_COMPOSITE);
+				g.drawImage(tiles[index], x, y, x + w, y + h, 0, 0, w, h, null);
+				g.setAlpha(1.0f);
+			} else {
+				g.drawImage(tiles[index], x, y, x + w, y + h, 0, 0, w, h, null);
+			}
+			if (tiles[index].contentsLost()) dirty[index] = true;
+		} while (dirty[index]);
+	}
+
+	private boolean releaseLeastRecentlyUsedTile() {
+		int lru = -1;
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] != null && (lru < 0 || lastUsed[i] < lastUsed[lru])) lru = i;
+		}
+		if (lru < 0 || lastUsed[lru] == paintCounter) return false;
+		pool.turnBackBuffer(tiles[lru]);
+		tiles[lru] = null;
+		tileCount--;
+		return true;
+	}
+
+}
@@ -2,16 +2,21 @@ package co.gongzh.snail;
 
 import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.Shape;
+import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
 import java.awt.image.VolatileImage;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import co.gongzh.snail.event.EventHandler;
 import co.gongzh.snail.event.HandlerBundle;
@@ -40,12 +45,31 @@ public class View implements Iterable<View> {
 	private boolean needsRepaint;
 	private Color backgroundColor;
 	VolatileImage buffer;
+	TiledBuffer tiledBuffer;
+	private BufferAtlas.Region atlasRegion;
+	private ViewContext.SharedRaster sharedRaster;
+	private java.awt.Rectangle cacheBounds;
+	private DamageRegion cacheDamagedRegion;
+	private boolean subtreeCacheOversized; // painted directly while the cache would exceed the tiled buffer threshold
+	private DisplayList displayList;
 	private boolean clipped;
 	private boolean hidden;
 	private float alpha;
 	private PaintMode paintMode;
 	private AffineTransform transform;
 	private AffineTransform inversedTransform;
+	private boolean opaque;
+	private boolean opaqueDeclared;
+	private boolean threadSafeRepaint;
+	private BufferedImage stagingImage; // rasterized by parallel repaint, uploaded to buffer when painting
+	private int repaintPriority;
+	boolean repaintDeferred; // keeps showing stale buffer in current frame due to paint budget
+	private int invisibleFrames; // frames in which the view is hidden or out of the viewport
+	private long lastRepaintTime; // when the buffer content was repainted last time
+	private boolean paintDowngraded; // painted directly instead of buffered due to memory pressure
+	private boolean bufferTracked; // in the buffered views of context, checked for invisible buffers
+	private PaintStatistics paintStatistics; // only in adaptive mode
+	private long contentPaintTime; // nanoseconds spent in repaintBufferContent, only measured in adaptive mode
 	
 	// template features
 	private HandlerBundle handlerBundle;
@@ -73,6 +97,17 @@ public class View implements Iterable<View> {
 		alpha = 1.0f;
 		paintMode = PaintMode.BUFFERED;
 		transform = inversedTransform = null;
+		opaqueDeclared = false;
+		updateOpaque();
+		threadSafeRepaint = false;
+		stagingImage = null;
+		repaintPriority = 0;
+		repaintDeferred = false;
+		invisibleFrames = 0;
+		lastRepaintTime = 0;
+		paintDowngraded = false;
+		bufferTracked = false;
+		paintStatistics = null;
 		
 		// template
 		handlerBundle = null;
@@ -90,8 +125,8 @@ public class View implements Iterable<View> {
 	}
 
 	static final void setViewContext(View view, ViewContext viewContext) {
+		if (view.viewContext != viewContext) view.bufferTracked = false;
 		view.viewContext = viewContext;
-		if (viewContext != null) viewContext.invalid();
 		for (View child : view) {
 			setViewContext(child, viewContext);
 		}
@@ -206,7 +241,7 @@ public class View implements Iterable<View> {
 		v.superView = this;
 		View.setViewContext(v, this.viewContext);
 		subviews.add(index, v);
-		if (viewContext != null) viewContext.invalid();
+		v.invalidCoveredRegion();
 		v.setNeedsRepaint();
 		fireSubviewAdded(v);
 		return this;
@@ -214,6 +249,7 @@ public class View implements Iterable<View> {
 
 	public void removeFromSuperView() {
 		if (superView != null) {
+			invalidCoveredRegion();
 			turnBackBuffer(this);
 			if (viewContext != null && viewContext.isInFocusChain(this)) {
 				viewContext.requestFocus(null);
@@ -223,7 +259,6 @@ public class View implements Iterable<View> {
 				viewContext.updateMouseOnViewChain(null);
 			}
 			superView.fireSubviewRemoved(this);
-			if (superView.viewContext != null) superView.viewContext.invalid();
 			superView = null;
 			setViewContext(this, null);
 		} else {
@@ -236,6 +271,12 @@ public class View implements Iterable<View> {
 			viewContext.bufferPool.turnBackBuffer(view.buffer);
 			view.buffer = null;
 		}
+		if (view.tiledBuffer != null) {
+			view.tiledBuffer.release();
+			view.tiledBuffer = null;
+		}
+		view.releaseSharedRaster();
+		view.releaseAtlasRegion();
 		for (View v : view) {
 			turnBackBuffer(v);
 		}
@@ -265,7 +306,7 @@ public class View implements Iterable<View> {
 		if (view.getIndex() != targetIndex) {
 			subviews.remove(view);
 			subviews.add(targetIndex, view);
-			if (viewContext != null) viewContext.invalid();
+			view.invalidCoveredRegion();
 			fireEvent(SUBVIEW_INDEX_CHANGED, view);
 		}
 	}
@@ -362,10 +403,20 @@ public class View implements Iterable<View> {
 	}
 	
 	public void setPosition(int left, int top) {
+		if (this.left != left || this.top != top) {
+			invalidCoveredRegion();
+			this.left = left;
+			this.top = top;
+			invalidCoveredRegion();
+			fireEvent(POSITION_CHANGED, getPosition());
+		}
+	}
+	
+	// moves the view without reporting any damage, used when the pixels are shifted by the super view
+	final void movePosition(int left, int top) {
 		if (this.left != left || this.top != top) {
 			this.left = left;
 			this.top = top;
-			if (viewContext != null) viewContext.invalid();
 			fireEvent(POSITION_CHANGED, getPosition());
 		}
 	}
@@ -385,6 +436,7 @@ public class View implements Iterable<View> {
 	
 	public void setSize(int width, int height) {
 		if (width != this.width || height != this.height) {
+			invalidRegion(0, 0, this.width, this.height);
 			this.width = width;
 			this.height = height;
 			setNeedsRepaint();
@@ -623,14 +675,18 @@ public class View implements Iterable<View> {
 		if (buffer != null) {
 			viewContext.bufferPool.turnBackBuffer(buffer);
 		}
-		buffer = viewContext.bufferPool.getBuffer(width, height);
+		buffer = viewContext.bufferPool.getBuffer(width, height, isOpaque());
 	}
 	
 	private void createBiggerBuffer() {
 		if (buffer != null) {
 			viewContext.bufferPool.turnBackBuffer(buffer);
 		}
-		buffer = viewContext.bufferPool.getBuffer(width + (width >> 3), height + (height >> 3));
+		buffer = viewContext.bufferPool.getBuffer(width + (width >> 3), height + (height >> 3), isOpaque());
+	}
+	
+	private boolean isBufferCompatible() {
+		return (buffer.getTransparency() == Transparency.OPAQUE) == isOpaque();
 	}
 	
 	protected final ViewGraphics getTemporaryGraphicsContext() {
@@ -644,26 +700,323 @@ public class View implements Iterable<View> {
 				createBuffer();
 			}
 			ViewGraphics g = new ViewGraphics(buffer.createGraphics());
-			
-			// clear current content
+			repaintBufferContent(g);
+			g.dispose();
+		} while (buffer.contentsLost());
+		stagingImage = null;
+		if (!customTarget) needsRepaint = false;
+	}
+	
+	private void repaintBufferContent(ViewGraphics g) {
+		if (stagingImage != null && stagingImage.getWidth() == width && stagingImage.getHeight() == height) {
+			// already rasterized in parallel, only upload it
 			g.setComposite(SRC_COMPOSITE);
-			g.setColor(backgroundColor == null ? CLEAR_COLOR : backgroundColor);
+			g.drawImage(stagingImage, 0, 0, null);
+		} else {
+			repaintBufferContent(g, 0, 0, width, height);
+		}
+	}
+	
+	// repaints a rectangle of a buffer (or a tile)
+	final void repaintBufferContent(ViewGraphics g, int x, int y, int w, int h) {
+		lastRepaintTime = System.currentTimeMillis();
+		final long start = paintStatistics != null ? System.nanoTime() : 0;
+		
+		// clear current content
+		g.setComposite(SRC_COMPOSITE);
+		g.setColor(backgroundColor == null ? CLEAR_COLOR : backgroundColor);
+		g.fillRect(x, y, w, h);
+		g.setComposite(SRC_OVER_COMPOSITE);
+		
+		// repaint
+		fireEvent(PRE_REPAINT, g);
+		repaintView(g);
+		fireEvent(REPAINT, g);
+		if (paintStatistics != null) contentPaintTime += System.nanoTime() - start;
+	}
+	
+	private void repaintTiledBuffer(ViewGraphics g) {
+		if (buffer != null) {
+			viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = null;
+		}
+		releaseAtlasRegion();
+		if (tiledBuffer == null) {
+			tiledBuffer = new TiledBuffer(viewContext.bufferPool);
+		}
+		tiledBuffer.setSize(width, height, isOpaque());
+		if (needsRepaint) {
+			tiledBuffer.invalidate();
+			needsRepaint = false;
+		}
+		java.awt.Rectangle clip = g.getClipBounds();
+		if (clip == null) clip = new java.awt.Rectangle(0, 0, width, height);
+		tiledBuffer.paint(this, g, clip, viewContext.getMaximumTileCount());
+	}
+	
+	// paints background and content of this view directly on the target, clipped to its bounds
+	private void repaintDirectly(ViewGraphics g) {
+		Shape clipShape = null;
+		if (!clipped) {
+			clipShape = g.getClip();
+			g.clipRect(0, 0, width, height);
+		}
+		if (backgroundColor != null) {
+			g.setColor(backgroundColor);
 			g.fillRect(0, 0, width, height);
-			g.setComposite(SRC_OVER_COMPOSITE);
-			
-			// repaint
+		}
+		if (paintMode == PaintMode.RECORDED) {
+			if (displayList == null || needsRepaint) recordDisplayList();
+			displayList.play(g);
+		} else {
 			fireEvent(PRE_REPAINT, g);
 			repaintView(g);
 			fireEvent(REPAINT, g);
-
-			g.dispose();
-		} while (buffer.contentsLost());
-		if (!customTarget) needsRepaint = false;
+		}
+		if (!clipped) {
+			g.setClip(clipShape);
+		}
+	}
+	
+	private void recordDisplayList() {
+		if (displayList == null) displayList = new DisplayList();
+		final Graphics2D scratch = (Graphics2D) getTemporaryGraphicsContext().getGraphics2D().create();
+		scratch.setTransform(new AffineTransform());
+		scratch.setClip(0, 0, width, height);
+		scratch.setComposite(SRC_OVER_COMPOSITE);
+		if (backgroundColor != null) scratch.setColor(backgroundColor);
+		final ViewGraphics g = new ViewGraphics(displayList.record(scratch));
+		fireEvent(PRE_REPAINT, g);
+		repaintView(g);
+		fireEvent(REPAINT, g);
+		g.dispose();
+		needsRepaint = false;
+	}
+	
+	// views with equal raster cache keys (and sizes and background colors) must paint identical pixels, so that
+	// they share one raster which is painted once. null by default, which means the view
+	// has its own buffer. the key should change whenever the painted content changes.
+	protected Object getRasterCacheKey() {
+		return null;
+	}
+	
+	private void repaintSharedRaster(ViewGraphics g, Object rasterCacheKey) {
+		if (buffer != null) {
+			viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = null;
+		}
+		if (tiledBuffer != null) {
+			tiledBuffer.release();
+			tiledBuffer = null;
+		}
+		releaseAtlasRegion();
+		final boolean opaque = isOpaque();
+		if (sharedRaster == null || !sharedRaster.key.equals(ViewContext.SharedRaster.makeKey(rasterCacheKey, width, height, opaque, backgroundColor))) {
+			releaseSharedRaster();
+			sharedRaster = viewContext.bufferPool.acquireSharedRaster(rasterCacheKey, width, height, opaque, backgroundColor);
+		}
+		final ViewContext.SharedRaster raster = sharedRaster;
+		do {
+			int returnCode = raster.image.validate(g.getDeviceConfiguration());
+			if (returnCode == VolatileImage.IMAGE_INCOMPATIBLE) {
+				viewContext.bufferPool.turnBackBuffer(raster.image);
+				raster.image = viewContext.bufferPool.getBuffer(width, height, opaque);
+				raster.painted = false;
+			} else if (returnCode == VolatileImage.IMAGE_RESTORED) {
+				raster.painted = false;
+			}
+			if (!raster.painted) {
+				ViewGraphics rg = new ViewGraphics(raster.image.createGraphics());
+				repaintBufferContent(rg, 0, 0, width, height);
+				rg.dispose();
+				raster.painted = true;
+			}
+			
+			// on screen
+			if (opaque && g.getAlpha() >= 1.0f) {
+				g.setComposite(SRC_COMPOSITE);
+				g.drawImage(raster.image, 0, 0, width, height, 0, 0, width, height, null);
+				g.setAlpha(1.0f);
+			} else {
+				g.drawImage(raster.image, 0, 0, width, height, 0, 0, width, height, null);
+			}
+			if (raster.image.contentsLost()) raster.painted = false;
+		} while (!raster.painted);
+		needsRepaint = false;
+	}
+	
+	private void repaintAtlasRegion(ViewGraphics g) {
+		if (buffer != null) {
+			viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = null;
+		}
+		releaseSharedRaster();
+		final boolean opaque = isOpaque();
+		if (atlasRegion == null || atlasRegion.width != width || atlasRegion.height != height || atlasRegion.page.opaque != opaque) {
+			releaseAtlasRegion();
+			atlasRegion = viewContext.bufferPool.atlas.allocate(width, height, opaque);
+		}
+		final BufferAtlas.Region region = atlasRegion;
+		do {
+			viewContext.bufferPool.atlas.validate(region, g.getDeviceConfiguration());
+			if (!region.painted || (needsRepaint && !repaintDeferred)) repaintAtlasRegionContent();
+			
+			// on screen
+			final VolatileImage image = region.getImage();
+			if (opaque && g.getAlpha() >= 1.0f) {
+				g.setComposite(SRC_COMPOSITE);
+				g.drawImage(image, 0, 0, width, height, region.x, region.y, region.x + width, region.y + height, null);
+				g.setAlpha(1.0f);
+			} else {
+				g.drawImage(image, 0, 0, width, height, region.x, region.y, region.x + width, region.y + height, null);
+			}
+			if (image.contentsLost()) region.painted = false;
+		} while (!region.painted);
+	}
+	
+	private void repaintAtlasRegionContent() {
+		final BufferAtlas.Region region = atlasRegion;
+		ViewGraphics rg = new ViewGraphics(region.getImage().createGraphics());
+		rg.translate(region.x, region.y);
+		rg.clipRect(0, 0, width, height);
+		repaintBufferContent(rg);
+		rg.dispose();
+		stagingImage = null;
+		region.painted = true;
+		needsRepaint = false;
+	}
+	
+	private void releaseAtlasRegion() {
+		if (atlasRegion != null) {
+			viewContext.bufferPool.atlas.free(atlasRegion);
+			atlasRegion = null;
+		}
+	}
+	
+	private void releaseSharedRaster() {
+		if (sharedRaster != null) {
+			viewContext.bufferPool.releaseSharedRaster(sharedRaster);
+			sharedRaster = null;
+		}
+	}
+	
+	// rasterizes a rectangle (in the coordinates of this view) of this view and its descendants into the buffer
+	private void repaintSubtreeCache(java.awt.Rectangle rect) {
+		rect = rect.intersection(cacheBounds);
+		if (rect.isEmpty()) return;
+		ViewGraphics bg = new ViewGraphics(buffer.createGraphics());
+		bg.translate(-cacheBounds.x, -cacheBounds.y);
+		bg.clipRect(rect.x, rect.y, rect.width, rect.height);
+		
+		// clear current content
+		bg.setComposite(SRC_COMPOSITE);
+		bg.setColor(CLEAR_COLOR);
+		bg.fillRect(rect.x, rect.y, rect.width, rect.height);
+		bg.setComposite(SRC_OVER_COMPOSITE);
+		
+		// repaint self and subviews directly
+		if (width > 0 && height > 0) repaintDirectly(bg);
+		for (int i = 0; i < subviews.size(); i++) {
+			subviews.get(i).repaint(bg, true);
+		}
+		
+		bg.dispose();
+	}
+	
+	// shifts the pixels in the subtree cache by (dx, dy) and marks the exposed area as damaged.
+	// only a clipped view can shift its cache, and it returns false if there is no valid cache.
+	final boolean scrollSubtreeCache(int dx, int dy) {
+		if (paintMode != PaintMode.CACHED_SUBTREE || !clipped || needsRepaint || buffer == null || cacheBounds == null) return false;
+		if (Math.abs(dx) >= width || Math.abs(dy) >= height) return false;
+		final Graphics2D bg = buffer.createGraphics();
+		bg.copyArea(0, 0, width, height, dx, dy);
+		bg.dispose();
+		if (buffer.contentsLost()) {
+			needsRepaint = true;
+			return false;
+		}
+		if (cacheDamagedRegion == null) cacheDamagedRegion = new DamageRegion();
+		cacheDamagedRegion.translate(dx, dy);
+		if (dx > 0) cacheDamagedRegion.add(new java.awt.Rectangle(0, 0, dx, height));
+		else if (dx < 0) cacheDamagedRegion.add(new java.awt.Rectangle(width + dx, 0, -dx, height));
+		if (dy > 0) cacheDamagedRegion.add(new java.awt.Rectangle(0, 0, width, dy));
+		else if (dy < 0) cacheDamagedRegion.add(new java.awt.Rectangle(0, height + dy, width, -dy));
+		return true;
+	}
+	
+	// rasterizes this view and all of its descendants into the buffer if needed, then puts it on screen
+	// updates the cache bounds if needed. a cache beyond the tiled buffer threshold is not kept,
+	// the view and its descendants are painted in their own ways instead.
+	private boolean isSubtreeCacheOversized() {
+		if (needsRepaint || cacheBounds == null) {
+			cacheBounds = getCoveredBounds();
+			needsRepaint = true;
+		}
+		final boolean oversized = viewContext.isTiledBufferNeeded(cacheBounds.width, cacheBounds.height);
+		if (oversized && buffer != null) {
+			viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = null;
+			if (cacheDamagedRegion != null) cacheDamagedRegion.clear();
+		} else if (!oversized && subtreeCacheOversized) {
+			// subviews are painted into the cache again
+			for (View v : this) {
+				turnBackBuffer(v);
+			}
+		}
+		subtreeCacheOversized = oversized;
+		return oversized;
+	}
+	
+	private void repaintSubtreeCache(ViewGraphics g) {
+		final GraphicsConfiguration gc = g.getDeviceConfiguration();
+		if (cacheBounds.isEmpty()) return;
+		final int w = cacheBounds.width, h = cacheBounds.height;
+		if (buffer == null || buffer.getWidth() < w || buffer.getHeight() < h || buffer.getTransparency() == Transparency.OPAQUE) {
+			if (buffer != null) viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = viewContext.bufferPool.getBuffer(w, h, false);
+			needsRepaint = true;
+		}
+		do {
+			int returnCode = buffer.validate(gc);
+			if (returnCode == VolatileImage.IMAGE_INCOMPATIBLE) {
+				viewContext.bufferPool.turnBackBuffer(buffer);
+				buffer = viewContext.bufferPool.getBuffer(w, h, false);
+				needsRepaint = true;
+			} else if (returnCode == VolatileImage.IMAGE_RESTORED) {
+				needsRepaint = true;
+			}
+			if (needsRepaint) {
+				repaintSubtreeCache(cacheBounds);
+				needsRepaint = false;
+				if (cacheDamagedRegion != null) cacheDamagedRegion.clear();
+			} else if (cacheDamagedRegion != null && !cacheDamagedRegion.isEmpty()) {
+				for (java.awt.Rectangle rect : cacheDamagedRegion.getRectangles()) {
+					repaintSubtreeCache(rect);
+				}
+				cacheDamagedRegion.clear();
+			}
+			
+			// on screen
+			g.drawImage(buffer, cacheBounds.x, cacheBounds.y, cacheBounds.x + w, cacheBounds.y + h, 0, 0, w, h, null);
+			if (buffer.contentsLost()) needsRepaint = true;
+		} while (needsRepaint);
 	}
 	
 	final void repaint(ViewGraphics g, boolean customTarget) {
 		if (hidden) return;
 		
+		// culling (clip bounds is in the coordinates of super view)
+		boolean visible = true;
+		final java.awt.Rectangle clipBounds = g.getClipBounds();
+		if (clipBounds != null) {
+			visible = transformRectToSuperView(new java.awt.Rectangle(0, 0, width, height)).intersects(clipBounds);
+			if (!visible) {
+				// the whole subtree is outside of the clip
+				if (clipped || subviews.isEmpty()) return;
+				if (!transformRectToSuperView(getCoveredBounds()).intersects(clipBounds)) return;
+			}
+		}
+		
 		final boolean no_size = width <= 0 || height <= 0;		
 		// translate
 		g.translate(left, top);
@@ -681,52 +1034,131 @@ public class View implements Iterable<View> {
 		// alpha
 		final float old_alpha = g.getAlpha();
 		g.setAlpha(old_alpha * alpha);
+		
+		Object rasterCacheKey = null;
+		
+		// a cached subtree is painted as a whole
+		final boolean cached = !customTarget && paintMode == PaintMode.CACHED_SUBTREE && !isSubtreeCacheOversized();
+		
+		// occlusion culling: subviews (and self) below the topmost subview
+		// that opaquely covers the whole clip are invisible
+		int firstSubview = 0;
+		if (!cached && clipBounds != null && g.getAlpha() >= 1.0f && subviews.size() > 0 && (!clipped || !no_size)) {
+			final java.awt.Rectangle localClipBounds = g.getClipBounds();
+			for (int i = subviews.size() - 1; i >= 0 && localClipBounds != null; i--) {
+				if (subviews.get(i).isOccluding(localClipBounds)) {
+					firstSubview = i;
+					visible = false;
+					break;
+				}
+			}
+		}
 
 		// repaint self
-		if (!no_size) {
-			if (customTarget || paintMode == PaintMode.DIRECTLY) {
+		if (cached) {
+			
+			// CACHED_SUBTREE MODE
+			if (!clipped || !no_size) repaintSubtreeCache(g);
+		} else if (!no_size && visible) {
+			// adaptive mode measures the time of painting content
+			final boolean buffered = isBufferedPaint();
+			final boolean adaptive = !customTarget && paintMode == PaintMode.ADAPTIVE;
+			final boolean invalidated = needsRepaint;
+			final boolean contentPainted = invalidated && !repaintDeferred; // when buffered
+			final long paintStart = adaptive ? System.nanoTime() : 0;
+			contentPaintTime = 0;
+			
+			if (customTarget || paintMode == PaintMode.DIRECTLY || paintMode == PaintMode.RECORDED || paintMode == PaintMode.CACHED_SUBTREE ||
+				paintMode == PaintMode.ADAPTIVE && !buffered || (buffered && paintDowngraded)) {
+				
+				// DIRECTLY / RECORDED MODE (OR BUFFERED MODE UNDER MEMORY PRESSURE, OR OVERSIZED SUBTREE CACHE)
+				repaintDirectly(g);
+			} else if (buffered && isSolidColor()) {
 				
-				// DIRECTLY MODE
-				if (!clipped) {
-					clipShape = g.getClip();
-					g.clipRect(0, 0, width, height);
+				// BUFFERED MODE (SOLID COLOR, NO BUFFER NEEDED)
+				if (buffer != null) {
+					viewContext.bufferPool.turnBackBuffer(buffer);
+					buffer = null;
 				}
+				if (tiledBuffer != null) {
+					tiledBuffer.release();
+					tiledBuffer = null;
+				}
+				releaseSharedRaster();
+				releaseAtlasRegion();
 				if (backgroundColor != null) {
 					g.setColor(backgroundColor);
 					g.fillRect(0, 0, width, height);
 				}
-				fireEvent(PRE_REPAINT, g);
-				repaintView(g);
-				fireEvent(REPAINT, g);
-				if (!clipped) {
-					g.setClip(clipShape);
-					clipShape = null;
-				}
-			} else if (paintMode == PaintMode.BUFFERED) {
+				needsRepaint = false;
+			} else if (buffered && (rasterCacheKey = getRasterCacheKey()) != null) {
+				
+				// BUFFERED MODE (SHARED RASTER)
+				repaintSharedRaster(g, rasterCacheKey);
+			} else if (buffered && BufferAtlas.isSmall(width, height)) {
+				
+				// BUFFERED MODE (SMALL, PACKED IN ATLAS)
+				repaintAtlasRegion(g);
+			} else if (buffered && viewContext.isTiledBufferNeeded(width, height)) {
+				
+				// BUFFERED MODE (TILED)
+				repaintTiledBuffer(g);
+			} else if (buffered) {
 				
 				// BUFFERED MODE
-				if (buffer == null) createBuffer();
+				if (tiledBuffer != null) {
+					tiledBuffer.release();
+					tiledBuffer = null;
+				}
+				releaseSharedRaster();
+				releaseAtlasRegion();
+				if (buffer == null || !isBufferCompatible()) {
+					createBuffer();
+					needsRepaint = true;
+				}
 				do {
 					int returnCode = buffer.validate(g.getDeviceConfiguration());
 					if (returnCode == VolatileImage.IMAGE_RESTORED ||
 						returnCode == VolatileImage.IMAGE_INCOMPATIBLE) {
 						// contents need to be restored/recreated
 						repaintBuffer(g.getDeviceConfiguration(), customTarget); // restored/recreate contents
-					} else if (needsRepaint) {
+					} else if (needsRepaint && !repaintDeferred) {
 						// check buffer size
 						if (buffer.getWidth() < width || buffer.getHeight() < height) createBiggerBuffer();
 						repaintBuffer(g.getDeviceConfiguration(), customTarget);
 					}
 					
 					// on screen
-					g.drawImage(buffer, 0, 0, width, height, 0, 0, width, height, null);
+					if (buffer.getTransparency() == Transparency.OPAQUE && g.getAlpha() >= 1.0f) {
+						// nothing to blend with
+						g.setComposite(SRC_COMPOSITE);
+						g.drawImage(buffer, 0, 0, width, height, 0, 0, width, height, null);
+						g.setAlpha(1.0f);
+					} else {
+						g.drawImage(buffer, 0, 0, width, height, 0, 0, width, height, null);
+					}
 				} while (buffer.contentsLost());
 			}
+			
+			if (adaptive) {
+				// a buffered view spends the rest of the time on the blit
+				final long time = System.nanoTime() - paintStart;
+				if (buffered && !paintDowngraded) {
+					updatePaintStatistics(invalidated, contentPainted ? contentPaintTime : -1, Math.max(0, time - contentPaintTime));
+				} else {
+					updatePaintStatistics(invalidated, time, -1);
+				}
+			}
 		}
 		
-		if (subviews.size() > 0 && (!clipped || !no_size)) {
+		if (!customTarget && !bufferTracked && holdsBuffer()) {
+			bufferTracked = true;
+			viewContext.trackBufferedView(this);
+		}
+		
+		if (!cached && subviews.size() > 0 && (!clipped || !no_size)) {
 			// repaint children
-			for (int i = 0; i < subviews.size(); i++) {
+			for (int i = firstSubview; i < subviews.size(); i++) {
 				subviews.get(i).repaint(g, customTarget);
 			}
 		}
@@ -752,7 +1184,7 @@ public class View implements Iterable<View> {
 		if (buffer != null) {
 			if (buffer.getWidth() < width || buffer.getHeight() < height) {
 				viewContext.bufferPool.turnBackBuffer(buffer);
-				buffer = viewContext.bufferPool.getBuffer(width, height);
+				buffer = viewContext.bufferPool.getBuffer(width, height, isOpaque());
 				setNeedsRepaint();
 			} else {
 				return;
@@ -767,7 +1199,21 @@ public class View implements Iterable<View> {
 
 	public final void setNeedsRepaint() {
 		needsRepaint = true;
-		if (viewContext != null) viewContext.invalid();
+		if (sharedRaster != null) sharedRaster.painted = false; // repainted once for all sharing views
+		invalidRegion(0, 0, width, height);
+	}
+	
+	// only repaints a part of the view. a buffered view may still repaint its entire buffer,
+	// while a big view backed by tiles only repaints the tiles intersecting the rectangle.
+	public final void setNeedsRepaint(int x, int y, int width, int height) {
+		if (tiledBuffer != null && !needsRepaint) {
+			tiledBuffer.invalidate(new java.awt.Rectangle(x, y, width, height));
+			invalidCachedSuperViews();
+		} else {
+			needsRepaint = true;
+			if (sharedRaster != null) sharedRaster.painted = false;
+		}
+		invalidRegion(x, y, width, height);
 	}
 
 	public final Color getBackgroundColor() {
@@ -777,6 +1223,7 @@ public class View implements Iterable<View> {
 	public void setBackgroundColor(Color backgroundColor) {
 		if (this.backgroundColor != backgroundColor) {
 			this.backgroundColor = backgroundColor;
+			updateOpaque();
 			setNeedsRepaint();
 			fireEvent(BACKGROUND_COLOR_CHANGED, backgroundColor);
 		}
@@ -787,8 +1234,11 @@ public class View implements Iterable<View> {
 	}
 
 	public void setClipped(boolean clipped) {
-		this.clipped = clipped;
-		if (viewContext != null) viewContext.invalid();
+		if (this.clipped != clipped) {
+			invalidCoveredRegion();
+			this.clipped = clipped;
+			invalidCoveredRegion();
+		}
 	}
 
 	public final boolean isHidden() {
@@ -797,11 +1247,12 @@ public class View implements Iterable<View> {
 	
 	public void setHidden(boolean hidden) {
 		if (this.hidden != hidden) {
+			if (hidden) invalidCoveredRegion();
 			this.hidden = hidden;
 			if (hidden && viewContext != null && viewContext.isInFocusChain(this)) {
 				viewContext.requestFocus(null);
 			}
-			if (viewContext != null) viewContext.invalid();
+			if (!hidden) invalidCoveredRegion();
 			fireEvent(HIDDEN_CHANGED, null);
 			if (!hidden) layout();
 		}
@@ -814,7 +1265,8 @@ public class View implements Iterable<View> {
 	public void setAlpha(float alpha) {
 		if (this.alpha != alpha) {
 			this.alpha = alpha;
-			if (viewContext != null) viewContext.invalid();
+			updateOpaque();
+			invalidCoveredRegion();
 			fireEvent(ALPHA_CHANGED, alpha);
 		}
 	}
@@ -824,12 +1276,33 @@ public class View implements Iterable<View> {
 	}
 
 	public void setPaintMode(PaintMode paintMode) {
+		if (this.paintMode == paintMode && paintMode == PaintMode.ADAPTIVE) return; // keep statistics
+		if (this.paintMode != paintMode) needsRepaint = true;
 		this.paintMode = paintMode;
-		if (paintMode != PaintMode.BUFFERED && buffer != null) {
+		paintStatistics = paintMode == PaintMode.ADAPTIVE ? new PaintStatistics() : null;
+		final boolean buffered = paintMode == PaintMode.BUFFERED || paintMode == PaintMode.ADAPTIVE;
+		if (!buffered && paintMode != PaintMode.CACHED_SUBTREE && buffer != null) {
 			viewContext.bufferPool.turnBackBuffer(buffer);
 			buffer = null;
 		}
-		if (viewContext != null) viewContext.invalid();
+		if (!buffered && tiledBuffer != null) {
+			tiledBuffer.release();
+			tiledBuffer = null;
+		}
+		if (!buffered) {
+			releaseSharedRaster();
+			releaseAtlasRegion();
+		}
+		if (paintMode == PaintMode.CACHED_SUBTREE && viewContext != null) {
+			// subviews are painted into the cache directly
+			for (View v : this) {
+				turnBackBuffer(v);
+			}
+		}
+		cacheBounds = null;
+		subtreeCacheOversized = false;
+		if (paintMode != PaintMode.RECORDED) displayList = null;
+		invalidRegion(0, 0, width, height);
 	}
 	
 	public final AffineTransform getTransform() {
@@ -837,6 +1310,7 @@ public class View implements Iterable<View> {
 	}
 	
 	public void setTransform(AffineTransform transform) {
+		invalidCoveredRegion();
 		if (transform == null) {
 			this.transform = null;
 			this.inversedTransform = null;
@@ -848,10 +1322,332 @@ public class View implements Iterable<View> {
 				throw new IllegalArgumentException(e);
 			}
 		}
-		if (viewContext != null) viewContext.invalid();
+		updateOpaque();
+		invalidCoveredRegion();
 		fireEvent(TRANSFORM_CHANGED, null);
 	}
 	
+	public final boolean isOpaque() {
+		return opaque;
+	}
+	
+	// declares that the view paints every pixel within its bounds with an opaque color,
+	// so that views behind it need not to be painted. by default, a view is opaque if its
+	// background color is opaque, its alpha is 1 and it has no transform.
+	public void setOpaque(boolean opaque) {
+		opaqueDeclared = true;
+		if (this.opaque != opaque) {
+			this.opaque = opaque;
+			invalidRegion(0, 0, width, height);
+		}
+	}
+	
+	public final boolean isThreadSafeRepaint() {
+		return threadSafeRepaint;
+	}
+	
+	// declares that repaintView and the repaint handlers of this view can be called in a
+	// worker thread, concurrently with other views, when parallel repaint of the view context
+	// is enabled. only a BUFFERED view is rasterized in parallel.
+	public void setThreadSafeRepaint(boolean threadSafeRepaint) {
+		this.threadSafeRepaint = threadSafeRepaint;
+	}
+	
+	public final int getRepaintPriority() {
+		return repaintPriority;
+	}
+	
+	// when the paint budget of the view context is exceeded, dirty buffers of higher priority
+	// are refreshed first, while the others keep showing stale contents until later frames.
+	public void setRepaintPriority(int repaintPriority) {
+		this.repaintPriority = repaintPriority;
+	}
+	
+	// collects dirty buffered views intersecting the clip (in the coordinates of super view)
+	final void collectDirtyBuffers(List<View> views, java.awt.Rectangle clip) {
+		if (hidden) return;
+		final java.awt.Rectangle bounds = transformRectToSuperView(new java.awt.Rectangle(0, 0, width, height));
+		if (clipped && !bounds.intersects(clip)) return;
+		if (paintMode == PaintMode.CACHED_SUBTREE && !subtreeCacheOversized) return; // descendants are painted directly into cache
+		if (isBufferedPaint() && !paintDowngraded && needsRepaint && width > 0 && height > 0 &&
+			!viewContext.isTiledBufferNeeded(width, height) && !isSolidColor() &&
+			getRasterCacheKey() == null && bounds.intersects(clip)) {
+			views.add(this);
+		}
+		if (subviews.isEmpty()) return;
+		final java.awt.Rectangle localClip = transformRectFromSuperView(clip);
+		for (View view : subviews) {
+			view.collectDirtyBuffers(views, localClip);
+		}
+	}
+	
+	// a view painting nothing but its background color is filled directly, without a buffer
+	private boolean isSolidColor() {
+		if (handlerBundle != null && (handlerBundle.hasHandler(PRE_REPAINT) || handlerBundle.hasHandler(REPAINT))) return false;
+		return !overridesRepaintView(getClass());
+	}
+	
+	private static final Map<Class<?>, Boolean> repaintViewOverrides = new HashMap<Class<?>, Boolean>();
+	
+	private static boolean overridesRepaintView(Class<?> cls) {
+		synchronized (repaintViewOverrides) {
+			Boolean overrides = repaintViewOverrides.get(cls);
+			if (overrides == null) {
+				overrides = false;
+				for (Class<?> c = cls; c != View.class; c = c.getSuperclass()) {
+					try {
+						c.getDeclaredMethod("repaintView", ViewGraphics.class);
+						overrides = true;
+						break;
+					} catch (NoSuchMethodException ex) {
+					}
+				}
+				repaintViewOverrides.put(cls, overrides);
+			}
+			return overrides;
+		}
+	}
+	
+	// counts frames in which the view is hidden or entirely outside of the content rectangle (in the
+	// coordinates of the super view of root view), and returns its buffers to the pool when it has been
+	// invisible for the given frames. buffers are acquired again when painted. returns false if the
+	// view holds no buffer anymore, so that the context stops tracking it.
+	final boolean releaseInvisibleBuffers(java.awt.Rectangle contentRect, int elapsedFrames, int frames) {
+		if (!holdsBuffer()) {
+			bufferTracked = false;
+			return false;
+		}
+		if (isVisibleIn(contentRect)) {
+			invisibleFrames = 0;
+			return true;
+		}
+		invisibleFrames += elapsedFrames;
+		if (invisibleFrames < frames) return true;
+		releaseBuffers();
+		needsRepaint = true;
+		invisibleFrames = 0;
+		bufferTracked = false;
+		return false;
+	}
+	
+	private boolean holdsBuffer() {
+		return buffer != null || tiledBuffer != null || sharedRaster != null || atlasRegion != null;
+	}
+	
+	// whether any painted part of the view is within the content rectangle, through all its super views
+	private boolean isVisibleIn(java.awt.Rectangle contentRect) {
+		java.awt.Rectangle rect = paintMode == PaintMode.CACHED_SUBTREE && cacheBounds != null ? new java.awt.Rectangle(cacheBounds) : new java.awt.Rectangle(0, 0, width, height);
+		for (View view = this; ; view = view.superView) {
+			if (view.hidden) return false;
+			rect = view.transformRectToSuperView(rect);
+			if (view.superView == null) return rect.intersects(contentRect);
+			if (view.superView.clipped) {
+				rect = rect.intersection(new java.awt.Rectangle(0, 0, view.superView.width, view.superView.height));
+				if (rect.isEmpty()) return false;
+			}
+		}
+	}
+	
+	// collects buffered views holding buffers
+	final void collectBufferedViews(List<View> views) {
+		if (isBufferedPaint() && (buffer != null || tiledBuffer != null || sharedRaster != null || atlasRegion != null)) {
+			views.add(this);
+		}
+		for (View view : subviews) {
+			view.collectBufferedViews(views);
+		}
+	}
+	
+	final long getLastRepaintTime() {
+		return lastRepaintTime;
+	}
+	
+	// paints the view directly and returns its buffers to the pool, until the paint is restored
+	final void downgradePaint() {
+		paintDowngraded = true;
+		releaseBuffers();
+		needsRepaint = true;
+	}
+	
+	private void releaseBuffers() {
+		if (buffer != null) {
+			viewContext.bufferPool.turnBackBuffer(buffer);
+			buffer = null;
+		}
+		if (tiledBuffer != null) {
+			tiledBuffer.release();
+			tiledBuffer = null;
+		}
+		releaseSharedRaster();
+		releaseAtlasRegion();
+	}
+	
+	// painted into buffers (in buffered mode, or adaptive mode while buffering pays off)
+	private boolean isBufferedPaint() {
+		return paintMode == PaintMode.BUFFERED || (paintMode == PaintMode.ADAPTIVE && paintStatistics.isBuffered());
+	}
+	
+	private void updatePaintStatistics(boolean invalidated, long paintTime, long blitTime) {
+		if (!paintStatistics.isBuffered()) needsRepaint = false; // painted directly
+		paintStatistics.record(invalidated, paintTime, blitTime);
+		final long bytes = paintStatistics.isBuffered() ? 0 : width * height * 4L;
+		final ViewContext.BufferPool pool = viewContext.bufferPool;
+		final boolean bufferAvailable = pool.buffer_active + bytes <= pool.buffer_limitation;
+		if (paintStatistics.update(bufferAvailable) && !paintStatistics.isBuffered()) releaseBuffers();
+	}
+	
+	// buffers are acquired again when painted
+	final void restorePaint() {
+		if (paintDowngraded) {
+			paintDowngraded = false;
+			setNeedsRepaint();
+		}
+		for (View view : subviews) {
+			view.restorePaint();
+		}
+	}
+	
+	// whether the buffer has contents that can be shown while the view is dirty
+	final boolean hasStaleBuffer() {
+		if (BufferAtlas.isSmall(width, height)) {
+			return atlasRegion != null && atlasRegion.painted && atlasRegion.width == width && atlasRegion.height == height && atlasRegion.page.opaque == isOpaque();
+		} else {
+			return buffer != null && isBufferCompatible() && buffer.getWidth() >= width && buffer.getHeight() >= height && !buffer.contentsLost();
+		}
+	}
+	
+	// refreshes the buffer ahead of painting
+	final void refreshBuffer(GraphicsConfiguration gc) {
+		if (BufferAtlas.isSmall(width, height)) {
+			viewContext.bufferPool.atlas.validate(atlasRegion, gc);
+			repaintAtlasRegionContent();
+		} else {
+			if (buffer.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) createBuffer();
+			repaintBuffer(gc, false);
+		}
+	}
+	
+	// called in a worker thread
+	final void rasterizeStagingImage(GraphicsConfiguration gc) {
+		final BufferedImage image = gc.createCompatibleImage(width, height, isOpaque() ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+		final ViewGraphics g = new ViewGraphics(image.createGraphics());
+		try {
+			repaintBufferContent(g, 0, 0, width, height);
+		} finally {
+			g.dispose();
+		}
+		stagingImage = image;
+	}
+	
+	final boolean hasStagingImage() {
+		return stagingImage != null;
+	}
+	
+	final void discardStagingImage() {
+		stagingImage = null;
+	}
+	
+	private void updateOpaque() {
+		if (!opaqueDeclared) {
+			opaque = backgroundColor != null && backgroundColor.getAlpha() == 255 && alpha >= 1.0f && transform == null;
+		}
+	}
+	
+	//// Damage Region ////
+	
+	// the area painted by this view and its visible descendants, in the coordinates
+	// of this view (before applying its own transform)
+	private java.awt.Rectangle getCoveredBounds() {
+		final java.awt.Rectangle bounds = new java.awt.Rectangle(0, 0, width, height);
+		if (clipped) {
+			if (width <= 0 || height <= 0) bounds.setSize(0, 0);
+			return bounds;
+		}
+		for (View child : subviews) {
+			if (child.hidden) continue;
+			java.awt.Rectangle rect = child.getCoveredBounds();
+			if (rect.isEmpty()) continue;
+			rect = child.transformRectToSuperView(rect);
+			if (bounds.isEmpty()) bounds.setBounds(rect);
+			else bounds.add(rect);
+		}
+		return bounds;
+	}
+	
+	// maps a rectangle in the coordinates of this view to the bounding rectangle in its super view
+	private java.awt.Rectangle transformRectToSuperView(java.awt.Rectangle rect) {
+		if (transform != null) rect = transform.createTransformedShape(rect).getBounds();
+		return new java.awt.Rectangle(rect.x + left, rect.y + top, rect.width, rect.height);
+	}
+	
+	private java.awt.Rectangle transformRectFromSuperView(java.awt.Rectangle rect) {
+		rect = new java.awt.Rectangle(rect.x - left, rect.y - top, rect.width, rect.height);
+		if (inversedTransform != null) rect = inversedTransform.createTransformedShape(rect).getBounds();
+		return rect;
+	}
+	
+	// whether the view and its descendants opaquely cover a rectangle (in super view coordinates)
+	private boolean isOccluding(java.awt.Rectangle rect) {
+		if (hidden || alpha < 1.0f) return false;
+		if (transform != null && (transform.getType() & (AffineTransform.TYPE_GENERAL_ROTATION | AffineTransform.TYPE_GENERAL_TRANSFORM)) != 0) return false;
+		if (!transformRectToSuperView(new java.awt.Rectangle(0, 0, width, height)).contains(rect)) return false;
+		if (opaque && paintMode != PaintMode.DISABLED) return true; // a disabled view paints nothing but its subviews
+		final java.awt.Rectangle localRect = transformRectFromSuperView(rect);
+		for (int i = subviews.size() - 1; i >= 0; i--) {
+			if (subviews.get(i).isOccluding(localRect)) return true;
+		}
+		return false;
+	}
+	
+	// any change in a subtree invalidates the cache of its CACHED_SUBTREE ancestors
+	private void invalidCachedSuperViews() {
+		for (View view = superView; view != null; view = view.superView) {
+			if (view.paintMode == PaintMode.CACHED_SUBTREE) view.needsRepaint = true;
+		}
+	}
+	
+	// a clipped cache only repaints the damaged part, otherwise the cache bounds may change
+	private void invalidSubtreeCache(java.awt.Rectangle rect) {
+		if (clipped && !needsRepaint) {
+			if (cacheDamagedRegion == null) cacheDamagedRegion = new DamageRegion();
+			cacheDamagedRegion.add(rect);
+		} else {
+			needsRepaint = true;
+		}
+	}
+	
+	// reports a rectangle (in the coordinates of this view) as damaged to the view context
+	// and to CACHED_SUBTREE super views, so that only that area is repainted in next frame.
+	// nothing is reported if the view or any of its super views is hidden.
+	final void invalidRegion(int x, int y, int w, int h) {
+		if (w <= 0 || h <= 0) return;
+		java.awt.Rectangle rect = new java.awt.Rectangle(x, y, w, h);
+		View view = this;
+		while (view != null) {
+			if (view.hidden) return;
+			rect = view.transformRectToSuperView(rect);
+			final View parent = view.superView;
+			if (parent != null) {
+				if (parent.clipped) {
+					rect = rect.intersection(new java.awt.Rectangle(0, 0, parent.width, parent.height));
+					if (rect.isEmpty()) return;
+				}
+				if (parent.paintMode == PaintMode.CACHED_SUBTREE) parent.invalidSubtreeCache(rect);
+			}
+			view = parent;
+		}
+		if (viewContext != null && !viewContext.isContentInvalid()) viewContext.invalid(rect);
+	}
+	
+	private void invalidCoveredRegion() {
+		if (viewContext == null || viewContext.isContentInvalid()) {
+			invalidCachedSuperViews();
+			return;
+		}
+		final java.awt.Rectangle rect = getCoveredBounds();
+		invalidRegion(rect.x, rect.y, rect.width, rect.height);
+	}
+	
 	//// Mouse Behavior ////
 	
 	public final Vector2D transformPointFromSuperView(Vector2D point) {
@@ -985,12 +1781,21 @@ public class View implements Iterable<View> {
 		if (handlerBundle == null) {
 			handlerBundle = new HandlerBundle();
 		}
+		if (key.equals(PRE_REPAINT) || key.equals(REPAINT)) {
+			// a solid color view needs a buffer from now on
+			setNeedsRepaint();
+		}
 		return handlerBundle.addHandler(key, handler);
 	}
 
 	public final boolean removeEventHandler(Key key, EventHandler handler) {
 		if (handlerBundle != null) {
-			return handlerBundle.removeHandler(key, handler);
+			final boolean removed = handlerBundle.removeHandler(key, handler);
+			if (removed && (key.equals(PRE_REPAINT) || key.equals(REPAINT))) {
+				// painted content changes, and a view without handlers may become a solid color
+				setNeedsRepaint();
+			}
+			return removed;
 		} else {
 			return false;
 		}
@@ -1006,7 +1811,15 @@ public class View implements Iterable<View> {
 	
 	//// Layout ////
 	
-	public final void layout() { fireEvent(PRE_LAYOUT, null); layoutView(); fireEvent(LAYOUT, null); }
+	public final void layout() {
+		final ViewContext context = viewContext; // timed by context
+		final long startTime = context != null ? context.beginLayout() : 0;
+		try {
+			fireEvent(PRE_LAYOUT, null); layoutView(); fireEvent(LAYOUT, null);
+		} finally {
+			if (context != null) context.endLayout(startTime);
+		}
+	}
 	protected void layoutView() {}
 	
 	//// Structure Changing Handlers ////
@@ -1,10 +1,14 @@
 package co.gongzh.snail;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.Component;
 import java.awt.Container;
 import java.awt.Font;
+import java.awt.Frame;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -13,8 +17,11 @@ import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
+import java.awt.Window;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.awt.event.InputMethodEvent;
 import java.awt.event.InputMethodListener;
 import java.awt.event.KeyEvent;
@@ -24,18 +31,33 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.font.TextHitInfo;
 import java.awt.geom.Rectangle2D;
 import java.awt.im.InputMethodRequests;
+import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
 import java.awt.image.VolatileImage;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedCharacterIterator.Attribute;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
@@ -53,6 +75,11 @@ public class ViewContext {
 		private final List<ViewContext> viewContexts;
 		private final List<Animation> animations;
 		private boolean running;
+		private volatile boolean wakeup; // something happened since the last frame started
+		private volatile boolean idle; // no animations and nothing to paint, set by the last frame
+		private volatile long frameTime; // when the last frame started running (in nanoseconds)
+		static private final long IDLE_INTERVAL = 1000; // housekeeping interval (in milliseconds) while idle
+		static private final long MAXIMUM_FRAME_TIME = 100; // animations never advance more than this (in milliseconds) in a frame
 		int fps;
 		int max_fps;
 		
@@ -60,6 +87,8 @@ public class ViewContext {
 			viewContexts = new ArrayList<ViewContext>();
 			animations = new LinkedList<Animation>();
 			running = false;
+			wakeup = false;
+			idle = false;
 			max_fps = 60;
 			fps = 0;
 		}
@@ -71,23 +100,26 @@ public class ViewContext {
 					running = true;
 					new Thread(this).start();
 				}
+				wakeUp();
+			}
+		}
+		
+		// resumes the driver parked while idle
+		void wakeUp() {
+			if (wakeup) return;
+			synchronized (this) {
+				wakeup = true;
+				notifyAll();
 			}
 		}
 		
 		synchronized void unregisterContext(ViewContext w) {
 			if (viewContexts.contains(w)) {
-				if (w.graphics != null) {
-					w.graphics.dispose();
-					w.graphics = null;
-				}
-				if (w.temporaryImage != null) {
-					w.temporaryImage.flush();
-					w.temporaryImage = null;
-				}
-				w.bufferPool.clearBuffer();
+				w.releaseResources();
 				viewContexts.remove(w);
 				if (viewContexts.size() == 0) {
 					running = false;
+					notifyAll();
 					if (sharedGraphics != null) {
 						sharedGraphics.dispose();
 						sharedGraphics = null;
@@ -111,6 +143,7 @@ public class ViewContext {
 				}
 			}
 			animations.add(a);
+			wakeUp();
 		}
 		
 		// only called by Animation.cancel in GUI thread
@@ -120,59 +153,148 @@ public class ViewContext {
 		
 		@Override
 		public void run() {
-			class Timer {
-				long t0 = System.currentTimeMillis();
-				long t, dt;
-				float fdt; // "dt" in seconds
-			}
-			final Timer timer = new Timer();
+			// at most one frame (or housekeeping) task is posted to GUI thread at a time,
+			// ticks of the driver passing while it is pending are coalesced
+			final AtomicBoolean frameInFlight = new AtomicBoolean(false);
+			final Runnable housekeeping = new Runnable() {
+				ViewContext[] contexts = new ViewContext[1];
+				@Override
+				public void run() {
+					try {
+						final long t = System.currentTimeMillis();
+						int count;
+						synchronized (Driver.this) {
+							count = viewContexts.size();
+							contexts = viewContexts.toArray(contexts);
+						}
+						for (int i = 0; i < count; i++) {
+							contexts[i].releaseInvisibleBuffers(System.nanoTime(), max_fps);
+							contexts[i].bufferPool.trimIdleBuffers(t);
+						}
+						checkMemoryPressure(t, contexts, count);
+					} finally {
+						frameInFlight.set(false);
+					}
+				}
+			};
 			final Runnable updateAll = new Runnable() {
 				ViewContext[] contexts = new ViewContext[1];
 				Animation[] animations_array = new Animation[1];
 				@Override
 				public void run() {
+					try {
+						update();
+					} finally {
+						frameInFlight.set(false);
+					}
+				}
+				private void update() {
+					// timing, measured when the frame actually runs
+					final long now = System.nanoTime();
+					final long t = System.currentTimeMillis();
+					final long dt = Math.max(1L, (now - frameTime) / 1000000L); // in milliseconds
+					frameTime = now;
+					fps = (int) (1000L / dt);
+					final float fdt = Math.min(dt, MAXIMUM_FRAME_TIME) / 1000.0f; // "dt" in seconds, clamped
+					
 					int count;
+					synchronized (Driver.this) {
+						count = viewContexts.size();
+						contexts = viewContexts.toArray(contexts);
+					}
 					
-					// animation
-					count = animations.size();
-					animations_array = animations.toArray(animations_array);
+					// animation (views laid out by animations are counted as layout)
+					long layoutTime = 0;
 					for (int i = 0; i < count; i++) {
+						layoutTime -= contexts[i].layoutTime;
+					}
+					final int animationCount = animations.size();
+					animations_array = animations.toArray(animations_array);
+					for (int i = 0; i < animationCount; i++) {
 						Animation ani = animations_array[i];
-						ani.update(timer.fdt);
+						ani.update(fdt);
 					}
+					for (int i = 0; i < count; i++) {
+						layoutTime += contexts[i].layoutTime;
+					}
+					final long animationTime = System.nanoTime() - now - layoutTime;
 					
 					// rendering
-					synchronized (Driver.this) {
-						count = viewContexts.size();
-						contexts = viewContexts.toArray(contexts);
-					}
+					final long frameInterval = 1000000000L / max_fps;
+					long paintTime = 0, presentTime = 0;
+					layoutTime = 0;
 					for (int i = 0; i < count; i++) {
-						contexts[i].update(timer.dt);
-						if (contexts[i].contentInvalid) {
-							contexts[i].content.repaint();
-							contexts[i].contentInvalid = false;
+						final ViewContext context = contexts[i];
+						if (!context.paused) {
+							context.update(dt);
+							if (context.isFrameDue(now, frameInterval)) {
+								final long presentStart = System.nanoTime();
+								final long paintStart = context.paintTime;
+								context.repaintDamagedRegion();
+								// posted to Swing's repaint manager, present is not measured (see FrameStatistics)
+								final long present = context.isPaintPosted() ? 0 : System.nanoTime() - presentStart - (context.paintTime - paintStart);
+								context.frameStatistics.record(0, context.layoutTime, context.paintTime, present);
+								layoutTime += context.layoutTime;
+								paintTime += context.paintTime;
+								presentTime += present;
+								context.layoutTime = context.paintTime = 0;
+							}
 						}
+						context.releaseInvisibleBuffers(now, max_fps);
+						context.bufferPool.trimIdleBuffers(t);
 					}
+					driverFrameStatistics.record(animationTime, layoutTime, paintTime, presentTime);
+					checkMemoryPressure(t, contexts, count);
 					
+					// idle if nothing else happens until the next frame
+					boolean idle = animations.isEmpty();
+					for (int i = 0; i < count && idle; i++) {
+						if (contexts[i].needsFrame()) idle = false;
+					}
+					Driver.this.idle = idle;
 				}
 			};
+			long tick = System.nanoTime(); // when the last frame was posted
+			frameTime = tick;
 			while (running) {
-				timer.t = System.currentTimeMillis();
-				if ((timer.dt = timer.t - timer.t0) * max_fps > 1000L) {
-					fps = (int) (1000L / timer.dt);
-					timer.fdt = timer.dt / 1000.0f;
-					try {
-						SwingUtilities.invokeAndWait(updateAll);
-					} catch (InterruptedException ex) {
-						ex.printStackTrace();
-					} catch (InvocationTargetException ex) {
-						ex.printStackTrace();
+				
+				// park while idle, until woken up by invalidation, animation or input
+				boolean parked = false;
+				synchronized (this) {
+					while (running && idle && !wakeup) {
+						try {
+							wait(IDLE_INTERVAL);
+						} catch (InterruptedException e) {
+							Thread.yield();
+						}
+						if (!wakeup) break; // timeout
+					}
+					parked = idle;
+				}
+				if (!running) break;
+				if (parked && !wakeup) {
+					if (frameInFlight.compareAndSet(false, true)) SwingUtilities.invokeLater(housekeeping);
+					continue;
+				}
+				final long frameInterval = 1000000000L / max_fps;
+				final long now = System.nanoTime();
+				if (parked) {
+					// the first frame after idle takes a regular interval
+					tick = Math.max(tick, now - frameInterval);
+					frameTime = Math.max(frameTime, now - frameInterval);
+				}
+				
+				if (now - tick >= frameInterval) {
+					tick = now;
+					if (frameInFlight.compareAndSet(false, true)) {
+						wakeup = false;
+						idle = false;
+						SwingUtilities.invokeLater(updateAll);
 					}
-					Thread.yield();
-					timer.t0 = timer.t;
 				} else {
 					try {
-						Thread.sleep(1000L / max_fps - timer.dt);
+						final long remaining = frameInterval - (now - tick);
+						Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
 					} catch (InterruptedException e) {
 						Thread.yield();
 					}
@@ -182,16 +304,39 @@ public class ViewContext {
 	}
 	
 	final static Driver SharedDriver = new Driver();
+	private static final FrameStatistics driverFrameStatistics = new FrameStatistics();
+	private static boolean globalBufferPool = false;
+	private static BufferCache globalBufferCache = null;
+	private static long globalBufferLimitation = 128 * 1024 * 1024; // 128 MB
+	private static ForkJoinPool sharedRepaintPool = null;
 	private static BufferedImage sharedTemporaryImage = null;
 	private static ViewGraphics sharedGraphics = null;
 	
+	// memory pressure, checked by driver about once a second
+	private static boolean memoryPressureMonitor = false;
+	private static List<MemoryPoolMXBean> heapPools = null;
+	private static int memoryPressureLevel = 0;
+	private static long lastMemoryCheckTime = 0;
+	private static long lastMemoryPressureTime = 0;
+	private static final int MEMORY_USAGE_THRESHOLD = 85; // percent of the maximum size of a heap pool
+	private static final long MEMORY_RESTORE_DELAY = 10 * 1000; // without pressure before restoring paint
+	
+	/** Flushes cached buffers not used by any view. */
+	public static final int TRIM_MEMORY_CACHE = 1;
+	/** Flushes cached buffers, and paints half of the buffered views directly (the least recently repainted first) until {@link #restoreMemory()}. */
+	public static final int TRIM_MEMORY_BUFFERS = 2;
+	
 	public static GraphicsConfiguration getDefaultGraphicsConfiguration() {
 		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
 	}
 	
 	public static ViewGraphics getSharedTemporaryGraphicsContext() {
 		if (sharedTemporaryImage == null) {
-			sharedTemporaryImage = getDefaultGraphicsConfiguration().createCompatibleImage(1, 1, Transparency.TRANSLUCENT);
+			if (GraphicsEnvironment.isHeadless()) {
+				sharedTemporaryImage = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+			} else {
+				sharedTemporaryImage = getDefaultGraphicsConfiguration().createCompatibleImage(1, 1, Transparency.TRANSLUCENT);
+			}
 		}
 		if (sharedGraphics == null) {
 			sharedGraphics = new ViewGraphics(sharedTemporaryImage.createGraphics());
@@ -199,6 +344,94 @@ public class ViewContext {
 		return sharedGraphics;
 	}
 
+	public static boolean isGlobalBufferPoolEnable() {
+		return globalBufferPool;
+	}
+	
+	/**
+	 * When enabled, view contexts created afterwards cache their unused buffers in a pool shared by
+	 * the process, so that compatible buffers are reused across contexts. All buffers of these contexts
+	 * are limited by {@link #setGlobalMaximumBufferSize(int)}, while
+	 * {@link #setMaximumBufferSize(int)} still limits each context as a quota.
+	 */
+	public static void setGlobalBufferPoolEnable(boolean globalBufferPool) {
+		ViewContext.globalBufferPool = globalBufferPool;
+	}
+	
+	private static synchronized BufferCache getGlobalBufferCache() {
+		if (globalBufferCache == null) {
+			globalBufferCache = new BufferCache(globalBufferLimitation);
+		}
+		return globalBufferCache;
+	}
+	
+	public static synchronized int getGlobalMaximumBufferSize() {
+		return (int) (globalBufferLimitation / 1024 / 1024);
+	}
+	
+	// the global cache is only created by the contexts using it
+	public static synchronized void setGlobalMaximumBufferSize(int megaByte) {
+		globalBufferLimitation = megaByte * 1024L * 1024L;
+		if (globalBufferCache != null) globalBufferCache.setLimitation(globalBufferLimitation);
+	}
+	
+	public static boolean isMemoryPressureMonitorEnable() {
+		return memoryPressureMonitor;
+	}
+	
+	/**
+	 * When enabled (disabled by default), the driver polls the heap usage after garbage collections. When it exceeds
+	 * 85% of a heap pool, all contexts are trimmed with {@link #TRIM_MEMORY_CACHE} first,
+	 * then with {@link #TRIM_MEMORY_BUFFERS} every second while the pressure lasts, and restored after
+	 * the pressure has gone for a while.
+	 */
+	public static void setMemoryPressureMonitorEnable(boolean memoryPressureMonitor) {
+		ViewContext.memoryPressureMonitor = memoryPressureMonitor;
+	}
+	
+	// only called by Driver in GUI thread
+	private static void checkMemoryPressure(long now, ViewContext[] contexts, int count) {
+		if (!memoryPressureMonitor || now - lastMemoryCheckTime < 1000) return;
+		lastMemoryCheckTime = now;
+		if (heapPools == null) {
+			heapPools = new ArrayList<MemoryPoolMXBean>();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+					heapPools.add(pool);
+				}
+			}
+		}
+		boolean pressure = false;
+		// polled, thresholds of the pools are left to application
+		for (MemoryPoolMXBean pool : heapPools) {
+			final MemoryUsage usage = pool.getCollectionUsage();
+			if (usage != null && usage.getMax() > 0 && usage.getUsed() > usage.getMax() / 100 * MEMORY_USAGE_THRESHOLD) {
+				pressure = true;
+				break;
+			}
+		}
+		if (pressure) {
+			// flush caches first, downgrade views if it lasts
+			memoryPressureLevel = Math.min(memoryPressureLevel + 1, TRIM_MEMORY_BUFFERS);
+			lastMemoryPressureTime = now;
+			for (int i = 0; i < count; i++) {
+				contexts[i].trimMemory(memoryPressureLevel);
+			}
+		} else if (memoryPressureLevel > 0 && now - lastMemoryPressureTime >= MEMORY_RESTORE_DELAY) {
+			memoryPressureLevel = 0;
+			for (int i = 0; i < count; i++) {
+				contexts[i].restoreMemory();
+			}
+		}
+	}
+	
+	/**
+	 * Returns timings of the frames of the driver, covering all view contexts.
+	 */
+	public static FrameStatistics getDriverFrameStatistics() {
+		return driverFrameStatistics;
+	}
+	
 	public static int getFPS() {
 		return SharedDriver.fps;
 	}
@@ -214,119 +447,154 @@ public class ViewContext {
 	//// Instance ////
 	
 	
+	// a raster shared by views with equal raster cache keys and sizes
+	static final class SharedRaster {
+		final List<Object> key;
+		VolatileImage image;
+		int referenceCount;
+		boolean painted;
+		SharedRaster(List<Object> key) {
+			this.key = key;
+			image = null;
+			referenceCount = 0;
+			painted = false;
+		}
+		// rasters are shared by views with equal cache keys, sizes, opacity and background colors
+		static List<Object> makeKey(Object cacheKey, int width, int height, boolean opaque, Color backgroundColor) {
+			return Arrays.<Object>asList(cacheKey, width, height, opaque, backgroundColor);
+		}
+	}
+	
 	class BufferPool {
 		long buffer_active = 0;
-		long buffer_cached = 0;
+		long buffer_cached = 0; // cached buffers returned by this pool
 		long buffer_limitation = 32 * 1024 * 1024; // 32 MB
-		static private final int SQUARE = 0;		// 4:3 - 3:4
-		static private final int WIDE = 1;			// 4:3 - 4:2
-		static private final int NARROW = 2;		// 3:4 - 2:4
-		static private final int VERY_WIDE = 3;		// 4:2 - 4:0
-		static private final int VERY_NARROW = 4;	// 2:4 - 0:4
-		private int getRectangleType(int width, int height) {
-			width *= 12;
-			if (height * 9 <= width && width <= height * 16) return SQUARE;
-			else {
-				height *= 12;
-				if (width > height) {
-					return (width >> 1) <= height ? WIDE : VERY_WIDE;
-				} else {
-					return (height >> 1) <= width ? NARROW : VERY_NARROW;
-				}
-			}
+		long buffer_idle_timeout = 30 * 1000; // cached buffers unused for 30 seconds are flushed
+		static private final int MINIMUM_SIZE = 16;
+		// buffers are allocated in size classes of 16, 24, 32, 48, 64, 96, ... in each dimension,
+		// so that any cached buffer of a size class fits any request of the class (waste < 1.5x per dimension)
+		private int getSizeClass(int size) {
+			if (size <= MINIMUM_SIZE) return MINIMUM_SIZE;
+			final int ceil = Integer.highestOneBit(size - 1) << 1;
+			final int mid = ceil - (ceil >> 2);
+			return size <= mid ? mid : ceil;
 		}
-		private final ArrayList<LinkedList<VolatileImage>> pools;
+		private final BufferCache cache;
+		private final Map<List<Object>, SharedRaster> sharedRasters;
+		final BufferAtlas atlas; // packs buffers of small views
 		BufferPool() {
-			pools = new ArrayList<LinkedList<VolatileImage>>(5);
-			for (int i = 0; i < 5; i++) {
-				pools.add(new LinkedList<VolatileImage>());
-			}
-		}
-		private VolatileImage requestBufferFromPool(int width, int height) {
-			LinkedList<VolatileImage> pool = pools.get(getRectangleType(width, height));
-			for (VolatileImage buf : pool) {
-				// skip small buffer
-				if (buf.getWidth() >= width && buf.getHeight() >= height) {
-					// compute waste
-					if (buf.getWidth() <= width * 2 && buf.getHeight() <= height * 2) {
-						// hit
-						pool.remove(buf);
-						return buf;
-					} else {
-						return null;
-					}
-				}
-			}
-			return null;
+			cache = globalBufferPool ? getGlobalBufferCache() : new BufferCache(Long.MAX_VALUE);
+			sharedRasters = new HashMap<List<Object>, SharedRaster>();
+			atlas = new BufferAtlas(this);
 		}
 		VolatileImage getBuffer(int width, int height) {
-			if (width <= 0) width = 1;
-			if (height <= 0) height = 1;
-			VolatileImage buf = requestBufferFromPool(width, height);
+			return getBuffer(width, height, false);
+		}
+		VolatileImage getBuffer(int width, int height, boolean opaque) {
+			width = getSizeClass(width);
+			height = getSizeClass(height);
+			VolatileImage buf = cache.poll(configuration, width, height, opaque);
+			final int delta = width * height * 4;
 			if (buf == null) {
 				// create new buffer
-				buffer_active += width * height * 4;
-				buf = configuration.createCompatibleVolatileImage(width, height, Transparency.TRANSLUCENT);
-			} else {
-				int delta = buf.getWidth() * buf.getHeight() * 4;
-				buffer_active += delta;
-				buffer_cached -= delta;
+				buf = configuration.createCompatibleVolatileImage(width, height, opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+				cache.allocated(delta);
 			}
+			buffer_active += delta;
 			return buf;
 		}
 		void turnBackBuffer(VolatileImage buf) {
-			int delta = buf.getWidth() * buf.getHeight() * 4;
-			LinkedList<VolatileImage> pool = pools.get(getRectangleType(buf.getWidth(), buf.getHeight()));
-			ListIterator<VolatileImage> it = pool.listIterator();
-			while (it.hasNext()) {
-				VolatileImage img = (VolatileImage) it.next();
-				if (buf.getWidth() * buf.getHeight() <= img.getWidth() * img.getHeight()) {
-					// insert
-					it.set(buf);
-					it.add(img);
-					buffer_active -= delta;
-					buffer_cached += delta;
-					checkBufferLimitation();
-					return;
-				}
+			buffer_active -= buf.getWidth() * buf.getHeight() * 4;
+			cache.offer(configuration, buf, this);
+		}
+		SharedRaster acquireSharedRaster(Object cacheKey, int width, int height, boolean opaque, Color backgroundColor) {
+			final List<Object> key = SharedRaster.makeKey(cacheKey, width, height, opaque, backgroundColor);
+			SharedRaster raster = sharedRasters.get(key);
+			if (raster == null) {
+				raster = new SharedRaster(key);
+				raster.image = getBuffer(width, height, opaque);
+				sharedRasters.put(key, raster);
 			}
-			it.add(buf);
-			buffer_active -= delta;
-			buffer_cached += delta;
-			checkBufferLimitation();
+			raster.referenceCount++;
+			return raster;
 		}
-		void checkBufferLimitation() {
-			while (buffer_cached > 0 && buffer_cached + buffer_active > buffer_limitation) {
-				for (LinkedList<VolatileImage> pool : pools) {
-					if (pool.size() > 0) {
-						VolatileImage buf = pool.removeLast();
-						buffer_cached -= buf.getWidth() * buf.getHeight() * 4;
-						buf.flush();
-						if (buffer_cached + buffer_active <= buffer_limitation) {
-							return;
-						}
-					}
-				}
+		void releaseSharedRaster(SharedRaster raster) {
+			if (--raster.referenceCount == 0) {
+				sharedRasters.remove(raster.key);
+				turnBackBuffer(raster.image);
+				raster.image = null;
 			}
 		}
+		void checkBufferLimitation() {
+			cache.trim(this);
+		}
+		// called by Driver
+		void trimIdleBuffers(long now) {
+			cache.trimIdleBuffers(now, buffer_idle_timeout);
+		}
+		void flushCachedBuffers() {
+			cache.clear(this);
+		}
 		void clearBuffer() {
-			for (LinkedList<VolatileImage> pool : pools) {
-				for (VolatileImage buf : pool) {
-					buf.flush();
-				}
-				pool.clear();
-			}
-			buffer_cached = 0;
+			cache.clear(this);
+			cache.allocated(-buffer_active); // not in use anymore
+			buffer_active = 0;
 		}
 	}
 	
 	// content
 	
-	private final JPanel content;
+	private final Component content;
+	private final int canvasBufferCount; // 0 if the content is a Swing panel
+	private final BufferedImage offscreenTarget; // null if the context is not offscreen
 	private View rootView;
 	private final GraphicsConfiguration configuration;
 	private boolean contentInvalid = true;
 	
+	// damage region (in root view coordinates), only used when content is not entirely invalid
+	private final DamageRegion damagedRegion = new DamageRegion();
+	
+	// views bigger than this (in either dimension) are buffered by tiles
+	private int tiledBufferThreshold = 2048;
+	
+	// paints damaged region synchronously in driver tick instead of posting repaint requests
+	private boolean immediatePaint = false;
+	
+	// rasterizes dirty thread-safe views on worker threads before painting
+	private boolean parallelRepaint = false;
+	
+	// time (in milliseconds) for refreshing dirty buffers in a frame, 0 for unlimited
+	private int paintBudget = 0;
+	private long frameStartTime = 0; // set when a frame is painted by several paint calls
+	
+	// buffers of views hidden or out of the viewport for these frames are returned to the pool, 0 for never
+	private int bufferReleaseFrames = 120;
+	private final List<View> bufferedViews = new ArrayList<View>(); // views which may hold buffers
+	private long lastBufferCheckTime = 0; // in nanoseconds
+	
+	// frame rate policies, 0 for the rate of driver
+	private int frameRateLimit = 0;
+	private int backgroundFrameRate = 20; // while the host window is not focused
+	private boolean paused = false;
+	private long lastFrameTime = 0; // when the content was painted by driver (in nanoseconds)
+	private Window hostWindow = null; // watched for iconification
+	private final WindowAdapter hostWindowListener = new WindowAdapter() {
+		@Override
+		public void windowDeiconified(WindowEvent e) {
+			invalid(); // not painted while iconified
+		}
+		@Override
+		public void windowActivated(WindowEvent e) {
+			SharedDriver.wakeUp(); // back to full frame rate
+		}
+	};
+	
+	// frame timing (in nanoseconds) accumulated since the last frame
+	private final FrameStatistics frameStatistics = new FrameStatistics();
+	private long layoutTime = 0;
+	private long paintTime = 0;
+	private int layoutDepth = 0;
+	
 	// utility
 	private BufferedImage temporaryImage;
 	private ViewGraphics graphics;
@@ -341,7 +609,21 @@ public class ViewContext {
 		this(container, new View());
 	}
 	
-	public ViewContext(final Container parent, final View rootView) {
+	public ViewContext(Container parent, View rootView) {
+		this(parent, rootView, 0);
+	}
+	
+	/**
+	 * Creates a view context. If <code>canvasBufferCount</code> is 2 or 3, the content is
+	 * an AWT canvas presented by a buffer strategy with that many buffers, which bypasses
+	 * Swing's double buffer. Otherwise the content is a Swing panel.
+	 */
+	public ViewContext(final Container parent, final View rootView, int canvasBufferCount) {
+		if (canvasBufferCount != 0 && canvasBufferCount != 2 && canvasBufferCount != 3) {
+			throw new IllegalArgumentException("canvas buffer count must be 2 or 3.");
+		}
+		this.canvasBufferCount = canvasBufferCount;
+		offscreenTarget = null;
 		configuration = parent.getGraphicsConfiguration();
 		contentInvalid = true;
 		bufferPool = new BufferPool();
@@ -412,17 +694,36 @@ public class ViewContext {
 			}
 			
 		};
-		content = new JPanel() {
-			private static final long serialVersionUID = 8751687976961703833L;
-			@Override
-			protected void paintComponent(Graphics g) {
-				ViewContext.this.paint((Graphics2D) g);
-			}
-			@Override
-			public InputMethodRequests getInputMethodRequests() {
-				return inputMethodRequests;
-			}
-		};
+		if (canvasBufferCount == 0) {
+			content = new JPanel() {
+				private static final long serialVersionUID = 8751687976961703833L;
+				@Override
+				protected void paintComponent(Graphics g) {
+					ViewContext.this.paint((Graphics2D) g);
+				}
+				@Override
+				public InputMethodRequests getInputMethodRequests() {
+					return inputMethodRequests;
+				}
+			};
+		} else {
+			content = new Canvas() {
+				private static final long serialVersionUID = -3212905470913826455L;
+				@Override
+				public void paint(Graphics g) {
+					// presented by driver through the buffer strategy
+					invalid();
+				}
+				@Override
+				public void update(Graphics g) {
+					paint(g);
+				}
+				@Override
+				public InputMethodRequests getInputMethodRequests() {
+					return inputMethodRequests;
+				}
+			};
+		}
 //		content.enableInputMethods(false);
 		content.addInputMethodListener(new InputMethodListener() {
 			
@@ -454,6 +755,15 @@ public class ViewContext {
 				content.repaint();
 			}
 		});
+		content.addHierarchyListener(new HierarchyListener() {
+			@Override
+			public void hierarchyChanged(HierarchyEvent e) {
+				if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && content.isShowing()) {
+					watchHostWindow();
+					invalid(); // not painted while hidden
+				}
+			}
+		});
 		parent.addComponentListener(new ComponentAdapter() {
 			@Override
 			public void componentResized(ComponentEvent e) {
@@ -481,7 +791,7 @@ public class ViewContext {
 		content.addMouseListener(new MouseListener() {
 			@Override
 			public void mouseReleased(MouseEvent e) {
-				currentMousePosition = Vector2D.make(e.getPoint());
+				updateMousePosition(e.getPoint());
 				co.gongzh.snail.MouseEvent event = new co.gongzh.snail.MouseEvent(e, getVelocity());
 				fireMouseReleased(event);
 				fireMouseClicked(event = new co.gongzh.snail.MouseEvent(e, getVelocity()));
@@ -495,7 +805,7 @@ public class ViewContext {
 //				if (!content.isFocusOwner()) {
 //					content.requestFocusInWindow();
 //				}
-				currentMousePosition = Vector2D.make(e.getPoint());
+				updateMousePosition(e.getPoint());
 				pressedMouseButton = e.getButton();
 				co.gongzh.snail.MouseEvent event = new co.gongzh.snail.MouseEvent(e, getVelocity());
 				updateMouseOnViewChain(event.getPosition(rootView));
@@ -522,7 +832,7 @@ public class ViewContext {
 		content.addMouseMotionListener(new MouseMotionListener() {
 			@Override
 			public void mouseMoved(MouseEvent e) {
-				currentMousePosition = Vector2D.make(e.getPoint());
+				updateMousePosition(e.getPoint());
 				co.gongzh.snail.MouseEvent event = new co.gongzh.snail.MouseEvent(e, getVelocity());
 				updateMouseOnViewChain(event.getPosition(rootView));
 				fireMouseMoved(event);
@@ -530,7 +840,7 @@ public class ViewContext {
 			}
 			@Override
 			public void mouseDragged(MouseEvent e) {
-				currentMousePosition = Vector2D.make(e.getPoint());
+				updateMousePosition(e.getPoint());
 				co.gongzh.snail.MouseEvent event = new co.gongzh.snail.MouseEvent(e, getVelocity());
 				event.setButton(pressedMouseButton);
 				fireMouseDragged(event);
@@ -540,7 +850,7 @@ public class ViewContext {
 		content.addMouseWheelListener(new MouseWheelListener() {
 			@Override
 			public void mouseWheelMoved(MouseWheelEvent e) {
-				currentMousePosition = Vector2D.make(e.getPoint());
+				updateMousePosition(e.getPoint());
 				co.gongzh.snail.MouseWheelEvent event = new co.gongzh.snail.MouseWheelEvent(e, getVelocity());
 				updateMouseOnViewChain(event.getPosition(rootView));
 				fireMouseWheelMoved(event);
@@ -549,9 +859,27 @@ public class ViewContext {
 		});
 		
 		setRootView(rootView);
+		if (content.isShowing()) watchHostWindow();
 		SharedDriver.registerContext(ViewContext.this);
 	}
 	
+	/**
+	 * Creates an offscreen view context which renders the root view into a buffered image.
+	 * It doesn't need a display and is not driven by the shared driver, call
+	 * {@link #renderFrame()} to render the damaged region into the image.
+	 */
+	public ViewContext(BufferedImage target, View rootView) {
+		canvasBufferCount = 0;
+		offscreenTarget = target;
+		content = null;
+		final Graphics2D g = target.createGraphics();
+		configuration = g.getDeviceConfiguration();
+		g.dispose();
+		contentInvalid = true;
+		bufferPool = new BufferPool();
+		setRootView(rootView);
+	}
+	
 	public final View getRootView() {
 		return rootView;
 	}
@@ -566,7 +894,8 @@ public class ViewContext {
 			throw new IllegalArgumentException("the view already has an owner context.");
 		}
 		View.setViewContext(rootView, this);
-		contentResized(content.getWidth(), content.getHeight());
+		invalid();
+		contentResized(getContentWidth(), getContentHeight());
 	}
 
 	public final GraphicsConfiguration getGraphicsConfiguration() {
@@ -579,12 +908,33 @@ public class ViewContext {
 	 */
 	@Deprecated
 	public final Container getAWTContainer() {
-		return content;
+		return getSwingContainer();
 	}
 	
+	/**
+	 * Returns the Swing panel of this context, or null if the content is a canvas or offscreen.
+	 * @see #getAWTComponent()
+	 */
 	public final JPanel getSwingContainer() {
+		return canvasBufferCount == 0 ? (JPanel) content : null;
+	}
+	
+	// null if the context is offscreen
+	public final Component getAWTComponent() {
 		return content;
 	}
+	
+	public final BufferedImage getOffscreenTarget() {
+		return offscreenTarget;
+	}
+	
+	private int getContentWidth() {
+		return content != null ? content.getWidth() : offscreenTarget.getWidth();
+	}
+	
+	private int getContentHeight() {
+		return content != null ? content.getHeight() : offscreenTarget.getHeight();
+	}
 
 	public final ViewGraphics getTemporaryGraphicsContext() {
 		if (temporaryImage == null) {
@@ -596,32 +946,244 @@ public class ViewContext {
 		return graphics;
 	}
 
-	// TODO: prepare content
-//	public void prepareContent(int width, int height) {
-//		rootView.setSize(width, height);
-//		ViewGraphics g = new ViewGraphics(getTemporaryGraphicsContext());
-//		rootView.repaint(g, false);
-//		g.dispose();
-//	}
-//
-//	public void prepareContent() {
-//		prepareContent(content.getWidth(), content.getHeight());
-//	}
-
 	public final int getMaximumBufferSize() {
 		return (int) (bufferPool.buffer_limitation / 1024 / 1024);
 	}
 
 	public void setMaximumBufferSize(int megaByte) {
 		bufferPool.buffer_limitation = megaByte * 1024L * 1024L;
+		bufferPool.checkBufferLimitation();
 	}
 
+	public final int getBufferIdleTimeout() {
+		return (int) (bufferPool.buffer_idle_timeout / 1000);
+	}
+	
+	// cached buffers unused for the given seconds are flushed, 0 for never
+	public void setBufferIdleTimeout(int seconds) {
+		bufferPool.buffer_idle_timeout = seconds * 1000L;
+	}
+	
+	/**
+	 * Releases memory held for painting, see {@link #TRIM_MEMORY_CACHE} and {@link #TRIM_MEMORY_BUFFERS}.
+	 * Views downgraded to paint directly keep their paint modes, and acquire buffers again after {@link #restoreMemory()}.
+	 */
+	public void trimMemory(int level) {
+		if (level >= TRIM_MEMORY_BUFFERS && rootView != null) {
+			final List<View> views = new ArrayList<View>();
+			rootView.collectBufferedViews(views);
+			Collections.sort(views, new Comparator<View>() {
+				@Override
+				public int compare(View v1, View v2) {
+					return Long.compare(v1.getLastRepaintTime(), v2.getLastRepaintTime());
+				}
+			});
+			for (int i = 0; i < (views.size() + 1) / 2; i++) {
+				views.get(i).downgradePaint();
+			}
+		}
+		if (level >= TRIM_MEMORY_CACHE) {
+			bufferPool.flushCachedBuffers();
+		}
+	}
+	
+	/**
+	 * Lets views downgraded by {@link #trimMemory(int)} paint into buffers again.
+	 */
+	public void restoreMemory() {
+		if (rootView != null) rootView.restorePaint();
+	}
+	
+	public final int getTiledBufferThreshold() {
+		return tiledBufferThreshold;
+	}
+	
+	public void setTiledBufferThreshold(int pixels) {
+		this.tiledBufferThreshold = pixels;
+		invalid();
+	}
+	
+	final boolean isTiledBufferNeeded(int width, int height) {
+		return width > tiledBufferThreshold || height > tiledBufferThreshold;
+	}
+	
+	// enough tiles to cover the content twice
+	final int getMaximumTileCount() {
+		final int columns = (getContentWidth() + TiledBuffer.TILE_SIZE - 1) / TiledBuffer.TILE_SIZE + 1;
+		final int rows = (getContentHeight() + TiledBuffer.TILE_SIZE - 1) / TiledBuffer.TILE_SIZE + 1;
+		return columns * rows * 2;
+	}
+	
+	// painted by Swing in a later event, rather than within the frame of driver
+	private boolean isPaintPosted() {
+		return canvasBufferCount == 0 && !immediatePaint;
+	}
+	
+	public final boolean isImmediatePaintEnable() {
+		return immediatePaint;
+	}
+	
+	/**
+	 * When enabled, damaged region is painted synchronously in every frame of the driver,
+	 * rather than being posted to Swing's repaint manager and painted in a later event.
+	 * It reduces input latency by up to one frame.
+	 */
+	public void setImmediatePaintEnable(boolean immediatePaint) {
+		this.immediatePaint = immediatePaint;
+	}
+	
+	public final boolean isParallelRepaintEnable() {
+		return parallelRepaint;
+	}
+	
+	/**
+	 * When enabled, dirty buffered views declared by {@link View#setThreadSafeRepaint(boolean)}
+	 * are rasterized on a shared fork-join pool before each paint, and then uploaded to
+	 * their buffers in GUI thread.
+	 */
+	public void setParallelRepaintEnable(boolean parallelRepaint) {
+		this.parallelRepaint = parallelRepaint;
+	}
+	
+	public final int getPaintBudget() {
+		return paintBudget;
+	}
+	
+	/**
+	 * Sets the time (in milliseconds) for refreshing dirty buffers in a frame, 0 for unlimited.
+	 * Dirty buffers beyond the budget keep showing their stale contents and are refreshed in
+	 * following frames, in the order of views in focus chain and under mouse, then by
+	 * {@link View#getRepaintPriority()}.
+	 */
+	public void setPaintBudget(int milliseconds) {
+		this.paintBudget = milliseconds;
+	}
+	
+	public final int getBufferReleaseFrames() {
+		return bufferReleaseFrames;
+	}
+	
+	/**
+	 * Sets the number of frames after which the buffers of views that are hidden or entirely
+	 * outside of the root view are returned to the pool, 0 for never. The buffers are acquired
+	 * again when the views become visible.
+	 */
+	public void setBufferReleaseFrames(int frames) {
+		this.bufferReleaseFrames = frames;
+	}
+	
+	public final int getFrameRateLimit() {
+		return frameRateLimit;
+	}
+	
+	/**
+	 * Limits the frames per second in which this context is painted, 0 for the rate of the driver
+	 * (see {@link #setMaximumFPS(int)}).
+	 */
+	public void setFrameRateLimit(int fps) {
+		this.frameRateLimit = fps;
+	}
+	
+	public final int getBackgroundFrameRate() {
+		return backgroundFrameRate;
+	}
+	
+	/**
+	 * Limits the frames per second while the host window is not focused, 0 for no throttling.
+	 * A context is never painted while its host is iconified or not showing.
+	 */
+	public void setBackgroundFrameRate(int fps) {
+		this.backgroundFrameRate = fps;
+	}
+	
+	public final boolean isPaused() {
+		return paused;
+	}
+	
+	/**
+	 * Pauses the context entirely. Damaged region is painted when resumed.
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+		if (!paused) SharedDriver.wakeUp();
+	}
+	
+	// the window is only known when the content is showing
+	private void watchHostWindow() {
+		final Window window = SwingUtilities.getWindowAncestor(content);
+		if (window == null || window == hostWindow) return;
+		unwatchHostWindow();
+		hostWindow = window;
+		window.addWindowListener(hostWindowListener);
+	}
+	
+	private void unwatchHostWindow() {
+		if (hostWindow != null) {
+			hostWindow.removeWindowListener(hostWindowListener);
+			hostWindow = null;
+		}
+	}
+	
+	// whether the host is visible on screen
+	private boolean isHostVisible() {
+		if (!content.isShowing()) return false;
+		final Window window = SwingUtilities.getWindowAncestor(content);
+		return !(window instanceof Frame && (((Frame) window).getExtendedState() & Frame.ICONIFIED) != 0);
+	}
+	
+	// called by Driver in GUI thread. a frame in the interval of driver (in nanoseconds) is
+	// close enough to the limited frame rate.
+	private boolean isFrameDue(long now, long driverInterval) {
+		if (!isHostVisible()) return false;
+		int fps = frameRateLimit;
+		if (backgroundFrameRate > 0 && (fps == 0 || backgroundFrameRate < fps)) {
+			final Window window = SwingUtilities.getWindowAncestor(content);
+			if (window != null && !window.isFocused()) fps = backgroundFrameRate;
+		}
+		if (fps > 0 && now - lastFrameTime < 1000000000L / fps - driverInterval / 2) return false;
+		lastFrameTime = now;
+		return true;
+	}
+	
+	/**
+	 * Returns timings of the frames of this context. The animation phase is only counted by the driver.
+	 */
+	public final FrameStatistics getFrameStatistics() {
+		return frameStatistics;
+	}
+	
+	// called by View.layout, nested layouts are counted once
+	final long beginLayout() {
+		return layoutDepth++ == 0 ? System.nanoTime() : 0;
+	}
+	
+	final void endLayout(long startTime) {
+		if (--layoutDepth == 0) layoutTime += System.nanoTime() - startTime;
+	}
+	
 	public void dispose() {
+		if (offscreenTarget != null) {
+			releaseResources();
+			return;
+		}
 		SharedDriver.unregisterContext(this);
+		unwatchHostWindow();
 		content.setVisible(false);
 		Container container = content.getParent();
 		container.remove(content);
 	}
+	
+	private void releaseResources() {
+		if (graphics != null) {
+			graphics.dispose();
+			graphics = null;
+		}
+		if (temporaryImage != null) {
+			temporaryImage.flush();
+			temporaryImage = null;
+		}
+		bufferPool.clearBuffer();
+	}
 
 	public boolean isDebugModeEnable() {
 		return debugMode;
@@ -653,9 +1215,36 @@ public class ViewContext {
 	}
 	
 	private void paint(Graphics2D g) {
+		final long startTime = System.nanoTime();
+		paintRootView(g);
+		paintTime += System.nanoTime() - startTime;
+	}
+	
+	private void paintRootView(Graphics2D g) {
 		if (rootView != null) {
 			ViewGraphics gx = new ViewGraphics(g);
-			rootView.repaint(gx, false);
+			if (parallelRepaint || paintBudget > 0) {
+				final long startTime = frameStartTime != 0 ? frameStartTime : System.nanoTime();
+				Rectangle clip = g.getClipBounds();
+				if (clip == null) clip = new Rectangle(0, 0, getContentWidth(), getContentHeight());
+				final List<View> views = new ArrayList<View>();
+				rootView.collectDirtyBuffers(views, clip);
+				final long deadline = paintBudget > 0 ? startTime + paintBudget * 1000000L : 0;
+				if (paintBudget > 0) sortByPriority(views);
+				if (parallelRepaint) rasterizeInParallel(views, deadline);
+				if (paintBudget > 0) refreshInBudget(views, g.getDeviceConfiguration(), deadline);
+				rootView.repaint(gx, false);
+				for (View view : views) {
+					view.discardStagingImage();
+					if (view.repaintDeferred) {
+						// refresh in next frame
+						view.repaintDeferred = false;
+						view.invalidRegion(0, 0, view.getWidth(), view.getHeight());
+					}
+				}
+			} else {
+				rootView.repaint(gx, false);
+			}
 
 			// debug mode
 			if (debugMode) {
@@ -717,8 +1306,245 @@ public class ViewContext {
 		}
 	}
 	
+	// rasterizes views in the given order. with a deadline (0 for none), views are rasterized in
+	// batches until the deadline, and those with stale buffers left are deferred without rasterizing.
+	private void rasterizeInParallel(List<View> views, long deadline) {
+		final List<View> threadSafe = new ArrayList<View>(views.size());
+		for (View view : views) {
+			if (view.isThreadSafeRepaint()) threadSafe.add(view);
+		}
+		if (threadSafe.size() < 2) return;
+		synchronized (ViewContext.class) {
+			if (sharedRepaintPool == null) sharedRepaintPool = new ForkJoinPool();
+		}
+		final int batchSize = deadline == 0 ? threadSafe.size() : sharedRepaintPool.getParallelism();
+		for (int start = 0; start < threadSafe.size(); start += batchSize) {
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(batchSize);
+			final List<View> batch = new ArrayList<View>(batchSize);
+			for (final View view : threadSafe.subList(start, Math.min(start + batchSize, threadSafe.size()))) {
+				if (start > 0 && System.nanoTime() >= deadline && view.hasStaleBuffer()) {
+					view.repaintDeferred = true;
+					continue;
+				}
+				batch.add(view);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						view.rasterizeStagingImage(configuration);
+						return null;
+					}
+				});
+			}
+			
+			final List<Future<Void>> futures = sharedRepaintPool.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					futures.get(i).get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (ExecutionException ex) {
+					// a view failed to rasterize is repainted in GUI thread as usual,
+					// where its failure is raised like any other painting error
+					batch.get(i).discardStagingImage();
+				}
+			}
+		}
+	}
+	
+	private void sortByPriority(List<View> views) {
+		Collections.sort(views, new Comparator<View>() {
+			@Override
+			public int compare(View v1, View v2) {
+				final boolean i1 = isInteracting(v1), i2 = isInteracting(v2);
+				if (i1 != i2) return i1 ? -1 : 1;
+				return v2.getRepaintPriority() - v1.getRepaintPriority();
+			}
+		});
+	}
+	
+	// refreshes dirty buffers (sorted by priority) until the deadline, the rest are deferred to later frames.
+	// views already rasterized in parallel are only uploaded.
+	private void refreshInBudget(List<View> views, GraphicsConfiguration gc, long deadline) {
+		boolean refreshed = false;
+		for (View view : views) {
+			if (!view.hasStaleBuffer() || view.repaintDeferred) continue; // nothing to show, painted anyway
+			if (refreshed && !view.hasStagingImage() && System.nanoTime() >= deadline) {
+				view.repaintDeferred = true;
+			} else {
+				// at least one buffer is refreshed in each frame
+				view.refreshBuffer(gc);
+				refreshed = true;
+			}
+		}
+	}
+	
+	private boolean isInteracting(View view) {
+		return focusViewChain.contains(view) || mouseOnViewChain.contains(view);
+	}
+	
 	void invalid() {
 		contentInvalid = true;
+		damagedRegion.clear();
+		if (offscreenTarget == null) SharedDriver.wakeUp();
+	}
+	
+	void invalid(Rectangle rect) {
+		if (contentInvalid) return;
+		damagedRegion.add(rect.intersection(new Rectangle(0, 0, getContentWidth(), getContentHeight())));
+		if (offscreenTarget == null) SharedDriver.wakeUp();
+	}
+	
+	// whether the driver should keep running frames for this context
+	private boolean needsFrame() {
+		if (paused || !isHostVisible()) return false; // woken up when resumed or shown
+		if (contentInvalid || !damagedRegion.isEmpty()) return true;
+		// mouse velocity is sampled by frames until the mouse stops
+		if (currentMousePosition != lastMousePosition) return true;
+		return cachedMouseVelocity != null && (cachedMouseVelocity.x != 0 || cachedMouseVelocity.y != 0);
+	}
+	
+	final boolean isContentInvalid() {
+		return contentInvalid;
+	}
+	
+	// called by View when it acquires buffers
+	final void trackBufferedView(View view) {
+		bufferedViews.add(view);
+	}
+	
+	// called by Driver in every frame and while idle, whether the context is painted or not. counts
+	// the frames of the driver elapsed since the last check, so that buffers of idle, paused,
+	// throttled or iconified contexts are released as well.
+	private void releaseInvisibleBuffers(long now, int fps) {
+		if (lastBufferCheckTime == 0) lastBufferCheckTime = now;
+		final long frames = (now - lastBufferCheckTime) * fps / 1000000000L;
+		if (frames < 1) return;
+		lastBufferCheckTime += frames * 1000000000L / fps;
+		releaseInvisibleBuffers((int) Math.min(frames, Integer.MAX_VALUE));
+	}
+	
+	// called at the beginning of each frame, only checks views holding buffers
+	private void releaseInvisibleBuffers(int elapsedFrames) {
+		if (bufferReleaseFrames <= 0 || bufferedViews.isEmpty()) return;
+		final Rectangle contentRect = new Rectangle(0, 0, getContentWidth(), getContentHeight());
+		int count = 0;
+		for (int i = 0; i < bufferedViews.size(); i++) {
+			final View view = bufferedViews.get(i);
+			// views moved to other contexts are dropped
+			if (view.getViewContext() == this && view.releaseInvisibleBuffers(contentRect, elapsedFrames, bufferReleaseFrames)) {
+				bufferedViews.set(count++, view);
+			}
+		}
+		bufferedViews.subList(count, bufferedViews.size()).clear();
+	}
+	
+	// called by Driver in GUI thread.
+	private void repaintDamagedRegion() {
+		if (canvasBufferCount > 0) {
+			presentCanvas();
+			return;
+		}
+		// immediate paint calls share the paint budget of one frame
+		if (immediatePaint) frameStartTime = System.nanoTime();
+		if (contentInvalid) {
+			contentInvalid = false;
+			if (immediatePaint) ((JPanel) content).paintImmediately(0, 0, content.getWidth(), content.getHeight());
+			else content.repaint();
+		} else if (!damagedRegion.isEmpty()) {
+			// painting may damage the content again, so take the rectangles out first
+			final Rectangle[] rects = damagedRegion.getRectangles().toArray(new Rectangle[0]);
+			damagedRegion.clear();
+			for (Rectangle r : rects) {
+				if (immediatePaint) ((JPanel) content).paintImmediately(r.x, r.y, r.width, r.height);
+				else content.repaint(r.x, r.y, r.width, r.height);
+			}
+		}
+		frameStartTime = 0;
+	}
+	
+	private void presentCanvas() {
+		final Canvas canvas = (Canvas) content;
+		if (!canvas.isDisplayable()) return; // content stays invalid until the canvas is displayable
+		BufferStrategy strategy = canvas.getBufferStrategy();
+		if (strategy == null) {
+			canvas.createBufferStrategy(canvasBufferCount);
+			strategy = canvas.getBufferStrategy();
+			invalid();
+		}
+		
+		// only a single copied back buffer keeps the last frame, otherwise repaint entirely
+		if (!damagedRegion.isEmpty() && (canvasBufferCount > 2 || strategy.getCapabilities().isPageFlipping())) {
+			invalid();
+		}
+		if (!contentInvalid && damagedRegion.isEmpty()) return;
+		Rectangle[] rects = contentInvalid ? null : damagedRegion.getRectangles().toArray(new Rectangle[0]);
+		contentInvalid = false;
+		damagedRegion.clear();
+		
+		frameStartTime = System.nanoTime();
+		boolean lost;
+		do {
+			boolean restored;
+			do {
+				final Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+				if (rects == null) {
+					// a clip is needed for culling, and for tiled buffers to paint only visible tiles
+					g.setClip(new Rectangle(0, 0, content.getWidth(), content.getHeight()));
+					paint(g);
+				} else {
+					for (Rectangle r : rects) {
+						final Graphics2D gr = (Graphics2D) g.create();
+						gr.clipRect(r.x, r.y, r.width, r.height);
+						paint(gr);
+						gr.dispose();
+					}
+				}
+				g.dispose();
+				restored = strategy.contentsRestored();
+				if (restored) rects = null;
+			} while (restored);
+			strategy.show();
+			lost = strategy.contentsLost();
+			if (lost) rects = null;
+		} while (lost);
+		frameStartTime = 0;
+	}
+	
+	/**
+	 * Renders the damaged region of an offscreen context into its image.
+	 * Returns false if nothing needs to be rendered.
+	 */
+	public boolean renderFrame() {
+		if (offscreenTarget == null) throw new IllegalStateException("not an offscreen context.");
+		releaseInvisibleBuffers(1);
+		bufferPool.trimIdleBuffers(System.currentTimeMillis());
+		if (!contentInvalid && damagedRegion.isEmpty()) return false;
+		final Rectangle[] rects;
+		if (contentInvalid) {
+			rects = new Rectangle[] { new Rectangle(0, 0, offscreenTarget.getWidth(), offscreenTarget.getHeight()) };
+		} else {
+			rects = damagedRegion.getRectangles().toArray(new Rectangle[0]);
+		}
+		contentInvalid = false;
+		damagedRegion.clear();
+		
+		frameStartTime = System.nanoTime();
+		final Graphics2D g = offscreenTarget.createGraphics();
+		for (Rectangle r : rects) {
+			final Graphics2D gr = (Graphics2D) g.create();
+			gr.clipRect(r.x, r.y, r.width, r.height);
+			gr.setComposite(AlphaComposite.Clear);
+			gr.fillRect(r.x, r.y, r.width, r.height);
+			gr.setComposite(AlphaComposite.SrcOver);
+			paint(gr);
+			gr.dispose();
+		}
+		g.dispose();
+		frameStartTime = 0;
+		frameStatistics.record(0, layoutTime, paintTime, 0);
+		layoutTime = paintTime = 0;
+		return true;
 	}
 	
 	//// Keyboard Event ////
@@ -928,6 +1754,11 @@ public class ViewContext {
 		return cachedMouseVelocity == null ? Vector2D.make() : cachedMouseVelocity.clone();
 	}
 	
+	private void updateMousePosition(java.awt.Point point) {
+		currentMousePosition = Vector2D.make(point);
+		SharedDriver.wakeUp();
+	}
+	
 	private void update(long dt) {
 		mouseTimer += dt;
 		if (mouseTimer >= 40) {
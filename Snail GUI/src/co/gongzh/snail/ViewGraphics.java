@@ -67,11 +67,16 @@ public final class ViewGraphics extends Graphics2D {
 	}
 	
 	public void drawImage(Image img, int left, int top) {
-		img.paintOnScreen(g2, left, top, img.width, img.height);
+		drawImage(img, left, top, img.width, img.height);
 	}
 	
 	public void drawImage(Image img, int left, int top, int width, int height) {
-		img.paintOnScreen(g2, left, top, width, height);
+		if (g2 instanceof DisplayList.Recorder) {
+			// image buffer may be lost before the display list is played
+			((DisplayList.Recorder) g2).drawImage(img, left, top, width, height);
+		} else {
+			img.paintOnScreen(g2, left, top, width, height);
+		}
 	}
 
 	@Override
@@ -38,6 +38,11 @@ public class HandlerBundle {
 		}
 	}
 	
+	public boolean hasHandler(Key key) {
+		List<EventHandler> list = handlerMap.get(key);
+		return list != null && !list.isEmpty();
+	}
+	
 	public void fireEvent(View sender, Key key, Object arg) {
 		List<EventHandler> list = handlerMap.get(key);
 		if (list != null && !list.isEmpty()) {
@@ -73,6 +73,18 @@ class ExampleView extends View {
 		////      2. simple rendering
 		////      3. the view constantly repaints itself
 		////
+		//// when to use PaintMode.RECORDED:
+		////      1. the view is big, or there are lots of them
+		////      2. the rendering work is made of vector drawing (shapes, text...)
+		////      3. the view does not repaint itself frequently
+		////
+		//// when to use PaintMode.CACHED_SUBTREE:
+		////      1. the view has lots of subviews
+		////      2. the view and its subviews rarely change
+		////
+		//// when to use PaintMode.ADAPTIVE:
+		////      1. not sure how often the view repaints itself, or it changes at runtime
+		////
 		//// it is okay to buffer everything. (like project JDAT... it takes about 40MB memory to store the buffer)
 		//// on windows, that part of memory is actually in V-RAM to fully enable hardware-acceleration.
 		//// i'm not sure how it works on mac...
@@ -58,7 +58,7 @@ public class EditableTextView extends EditableTextViewBase implements InputMetho
 					// NOTE:
 					// the following endComposition() call does not work very well.
 					// at least, it does not close the input candidate box.
-					getViewContext().getSwingContainer().getInputContext().endComposition();
+					getViewContext().getAWTComponent().getInputContext().endComposition();
 				}
 			}
 		});
@@ -180,7 +180,7 @@ public class EditableTextView extends EditableTextViewBase implements InputMetho
 	        rectangle.height = ascent + descent;
 	        
 	        // translate to screen coordinates
-	        Point location = getViewContext().getSwingContainer().getLocationOnScreen();
+	        Point location = getViewContext().getAWTComponent().getLocationOnScreen();
 	        rectangle.translate(location.x, location.y);
 	        return rectangle;
 		}